@@ -0,0 +1,239 @@
+package com.github.pmtischler.base;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Keeps the camera open across OpModes.
+ * Opening the camera and creating its surface takes long enough to be felt
+ * at every init and OpMode switch, so OpModes lease the camera instead of
+ * opening it. The camera stays open while leased, and for an idle timeout
+ * after the last lease is released, so the next OpMode finds it warm.
+ * A lease asking for a different configuration reopens an idle camera.
+ * The camera hands each frame to a single consumer (the latest frame wins),
+ * so it is leased to one consumer at a time; a second concurrent lease
+ * would steal the first one's frames and is rejected.
+ */
+public class CameraManager {
+    /**
+     * A lease on the shared camera.
+     */
+    public class Lease {
+        /**
+         * Creates a lease.
+         */
+        private Lease(SimpleCamera camera, boolean warm) {
+            this.camera = camera;
+            this.warm = warm;
+            acquireNanos = System.nanoTime();
+            released = false;
+        }
+
+        /**
+         * Gets the camera.
+         * Release the lease when done rather than stopping the camera.
+         */
+        public SimpleCamera getCamera() {
+            return camera;
+        }
+
+        /**
+         * Whether the camera was already open when leased.
+         */
+        public boolean wasWarm() {
+            return warm;
+        }
+
+        /**
+         * Gets the time from leasing until the camera delivered a frame.
+         * Zero if frames were already flowing when leased.
+         * @return The time (seconds), NaN if no frame yet.
+         */
+        public double getTimeToFirstFrame() {
+            long first = camera.getFirstFrameNanos();
+            if (first == 0) {
+                return Double.NaN;
+            }
+            return Math.max(0, first - acquireNanos) / 1e9;
+        }
+
+        /**
+         * Returns the camera to the manager. Safe to call more than once.
+         */
+        public void release() {
+            synchronized(CameraManager.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                CameraManager.this.releaseLease();
+            }
+        }
+
+        // The leased camera.
+        private SimpleCamera camera;
+        // Whether the camera was already open.
+        private boolean warm;
+        // When the camera was leased (System.nanoTime()).
+        private long acquireNanos;
+        // Whether the lease was released.
+        private boolean released;
+    }
+
+    /**
+     * Gets the manager of the process.
+     */
+    public static synchronized CameraManager getInstance() {
+        if (instance == null) {
+            instance = new CameraManager(DEFAULT_IDLE_TIMEOUT_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a manager.
+     * @param idleTimeoutMillis Time the camera stays open after the last
+     *   lease is released (milliseconds).
+     */
+    public CameraManager(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        handler = new Handler(Looper.getMainLooper());
+        closeIdle = new Runnable() {
+            @Override
+            public void run() {
+                closeIfIdle();
+            }
+        };
+        camera = null;
+        numLeases = 0;
+    }
+
+    /**
+     * Leases the camera, opening it if needed.
+     * @param context The app context.
+     * @param streaming Whether to capture preview frames rather than pictures.
+     * @param requirements What the consumers need, null for the camera's
+     *   defaults.
+     * @return The lease, to release when done (e.g. in stop()).
+     * @throws IllegalStateException If the camera is already leased.
+     */
+    public synchronized Lease acquire(Context context, boolean streaming,
+                                      CaptureRequirements requirements) {
+        boolean warm = canReuse(camera != null, numLeases, this.streaming,
+                                this.requirements, streaming, requirements);
+        handler.removeCallbacks(closeIdle);
+        if (warm) {
+            // The new user must not see the last one's frames or settings.
+            camera.reset();
+        } else {
+            close();
+            // Copied, so later changes by the caller do not alter the match.
+            this.requirements = requirements == null ? null :
+                new CaptureRequirements(requirements);
+            this.streaming = streaming;
+            camera = new SimpleCamera(context, streaming, this.requirements);
+        }
+        numLeases++;
+        Log.i(TAG, "Camera leased (" + (warm ? "warm" : "cold") + ").");
+        return new Lease(camera, warm);
+    }
+
+    /**
+     * Checks a lease may be granted, and whether the open camera serves it.
+     * @param open Whether the camera is open.
+     * @param numLeases The number of unreleased leases.
+     * @param openStreaming Whether the open camera streams.
+     * @param openRequirements What the open camera was opened for.
+     * @param streaming Whether the lease needs streaming.
+     * @param requirements What the lease needs.
+     * @return Whether the open camera can be reused as is.
+     * @throws IllegalStateException If the camera is already leased.
+     */
+    static boolean canReuse(boolean open, int numLeases, boolean openStreaming,
+                            CaptureRequirements openRequirements,
+                            boolean streaming, CaptureRequirements requirements) {
+        if (numLeases > 0) {
+            throw new IllegalStateException("Camera is already leased.");
+        }
+        return open && openStreaming == streaming &&
+            (openRequirements == null ? requirements == null :
+             openRequirements.equals(requirements));
+    }
+
+    /**
+     * Gets the number of unreleased leases, at most one.
+     */
+    public synchronized int getNumLeases() {
+        return numLeases;
+    }
+
+    /**
+     * Whether the camera is open.
+     */
+    public synchronized boolean isOpen() {
+        return camera != null;
+    }
+
+    /**
+     * Releases the camera now, whether leased or not.
+     */
+    public synchronized void shutdown() {
+        handler.removeCallbacks(closeIdle);
+        close();
+        numLeases = 0;
+    }
+
+    /**
+     * Counts a released lease, starting the idle timeout after the last.
+     */
+    private synchronized void releaseLease() {
+        numLeases--;
+        if (numLeases == 0) {
+            handler.postDelayed(closeIdle, idleTimeoutMillis);
+        }
+    }
+
+    /**
+     * Closes the camera if still not leased once the idle timeout passed.
+     */
+    private synchronized void closeIfIdle() {
+        if (numLeases == 0) {
+            Log.i(TAG, "Camera idle, releasing.");
+            close();
+        }
+    }
+
+    /**
+     * Closes the camera, if open.
+     */
+    private void close() {
+        if (camera != null) {
+            camera.stop();
+            camera = null;
+        }
+    }
+
+    // Tag used for logging.
+    private static final String TAG = "pmtischler.CameraManager";
+    // Time the camera stays open after the last lease (milliseconds),
+    // enough to switch from one OpMode to the next.
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+    // The manager of the process.
+    private static CameraManager instance;
+
+    // Time the camera stays open after the last lease (milliseconds).
+    private long idleTimeoutMillis;
+    // Runs the idle timeout on the main thread.
+    private Handler handler;
+    // Closes the camera when the idle timeout passes.
+    private Runnable closeIdle;
+    // The open camera, null if closed.
+    private SimpleCamera camera;
+    // Configuration the camera was opened with.
+    private boolean streaming;
+    private CaptureRequirements requirements;
+    // Number of unreleased leases.
+    private int numLeases;
+}
@@ -0,0 +1,147 @@
+package com.github.pmtischler.base;
+
+import java.util.List;
+
+/**
+ * The least resolution and frame rate the camera's consumers need.
+ * Each consumer declares its minimum, and the camera picks the smallest
+ * supported preview size and frame rate range which satisfy all of them,
+ * so pixels which would only be thrown away are never captured.
+ * Sizes are {width, height} and frame rate ranges {min, max} in frames per
+ * second scaled by 1000, as reported by the Android camera.
+ */
+public class CaptureRequirements {
+    /**
+     * Creates requirements which any size and frame rate satisfy.
+     */
+    public CaptureRequirements() {
+        minWidth = 0;
+        minHeight = 0;
+        minFps = 0;
+    }
+
+    /**
+     * Creates a copy of requirements, unaffected by later changes to them.
+     * @param other The requirements to copy.
+     */
+    public CaptureRequirements(CaptureRequirements other) {
+        minWidth = other.minWidth;
+        minHeight = other.minHeight;
+        minFps = other.minFps;
+    }
+
+    /**
+     * Adds a consumer's requirements.
+     * @param minWidth Least image width (pixels).
+     * @param minHeight Least image height (pixels).
+     * @param minFps Least frame rate (frames per second), 0 for any.
+     * @return These requirements, for chaining.
+     */
+    public CaptureRequirements require(int minWidth, int minHeight, double minFps) {
+        this.minWidth = Math.max(this.minWidth, minWidth);
+        this.minHeight = Math.max(this.minHeight, minHeight);
+        this.minFps = Math.max(this.minFps, minFps);
+        return this;
+    }
+
+    /**
+     * Gets the least image width (pixels).
+     */
+    public int getMinWidth() {
+        return minWidth;
+    }
+
+    /**
+     * Gets the least image height (pixels).
+     */
+    public int getMinHeight() {
+        return minHeight;
+    }
+
+    /**
+     * Gets the least frame rate (frames per second).
+     */
+    public double getMinFps() {
+        return minFps;
+    }
+
+    /**
+     * Chooses the smallest size which satisfies the requirements.
+     * @param sizes The supported sizes.
+     * @return The size with the fewest pixels at least the least width and
+     *   height, else the largest size. Null if there are no sizes.
+     */
+    public int[] chooseSize(List<int[]> sizes) {
+        int[] best = null;
+        int[] largest = null;
+        for (int[] size : sizes) {
+            if (largest == null || area(size) > area(largest)) {
+                largest = size;
+            }
+            if (size[0] >= minWidth && size[1] >= minHeight &&
+                    (best == null || area(size) < area(best))) {
+                best = size;
+            }
+        }
+        return best != null ? best : largest;
+    }
+
+    /**
+     * Chooses the slowest frame rate range which satisfies the requirements.
+     * A range satisfies them if even its minimum is fast enough.
+     * @param ranges The supported ranges (frames per second * 1000).
+     * @return The satisfying range with the lowest maximum (the narrowest
+     *   on ties), else the range with the highest minimum. Null if there
+     *   are no ranges or no frame rate is required.
+     */
+    public int[] chooseFpsRange(List<int[]> ranges) {
+        if (minFps <= 0) {
+            return null;
+        }
+        int scaledMin = (int)Math.ceil(minFps * 1000);
+        int[] best = null;
+        int[] fastest = null;
+        for (int[] range : ranges) {
+            if (fastest == null || range[0] > fastest[0]) {
+                fastest = range;
+            }
+            if (range[0] < scaledMin) {
+                continue;
+            }
+            if (best == null || range[1] < best[1] ||
+                    (range[1] == best[1] && range[0] > best[0])) {
+                best = range;
+            }
+        }
+        return best != null ? best : fastest;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof CaptureRequirements)) {
+            return false;
+        }
+        CaptureRequirements o = (CaptureRequirements)other;
+        return minWidth == o.minWidth && minHeight == o.minHeight &&
+            minFps == o.minFps;
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * minWidth + minHeight) * 31 + (int)(minFps * 1000);
+    }
+
+    /**
+     * Gets the number of pixels of a size.
+     */
+    private static long area(int[] size) {
+        return (long)size[0] * size[1];
+    }
+
+    // Least image width (pixels).
+    private int minWidth;
+    // Least image height (pixels).
+    private int minHeight;
+    // Least frame rate (frames per second).
+    private double minFps;
+}
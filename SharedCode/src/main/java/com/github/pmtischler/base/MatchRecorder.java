@@ -0,0 +1,312 @@
+package com.github.pmtischler.base;
+
+import com.github.pmtischler.vision.MatPool;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+/**
+ * Records camera frames to MJPEG video for post-match analysis.
+ * Frames are copied on the producer and encoded on a single background
+ * thread with a bounded queue, so the producer never waits on the encoder.
+ * When the encoder falls behind, only every Nth frame is kept (N doubling
+ * while the queue is half full, halving once it drains), and frames which
+ * still do not fit are dropped.
+ * Video rotates through a fixed number of files, e.g. match0.avi to
+ * match{maxFiles-1}.avi. Each frame written is indexed in a timeseries
+ * stream (e.g. matchIndex) on the OpMode clock, so the video can be synced
+ * with BlackBox recordings:
+ *   videoFile: number of the file (its name is number % maxFiles).
+ *   videoFrame: index of the frame within its file.
+ */
+public class MatchRecorder {
+    /**
+     * Creates a recorder, whose clock starts at zero.
+     * @param directory The directory video is written to.
+     * @param prefix The file name prefix, e.g. "match" for match0.avi.
+     * @param fps The playback rate of the video (frames per second).
+     * @param framesPerFile Frames written before rotating to the next file.
+     * @param maxFiles Number of file names rotated through.
+     * @param queueCapacity Most frames waiting to be encoded.
+     */
+    public MatchRecorder(File directory, String prefix, double fps,
+                         int framesPerFile, int maxFiles,
+                         int queueCapacity) throws Exception {
+        if (framesPerFile < 1 || maxFiles < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Counts must be at least 1.");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.fps = fps;
+        this.framesPerFile = framesPerFile;
+        this.maxFiles = maxFiles;
+        this.queueCapacity = queueCapacity;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueCapacity));
+        pool = new MatPool(queueCapacity + 1);
+        indexOutput = new FileOutputStream(new File(directory, prefix + "Index"));
+        index = new TimeseriesStream.Writer(indexOutput);
+        syncClock(0);
+        numOffered = 0;
+        stride = 1;
+        numWritten = new AtomicInteger(0);
+        numSkipped = new AtomicInteger(0);
+        numDropped = new AtomicInteger(0);
+        writer = null;
+        numFiles = 0;
+        framesInFile = 0;
+        lastTime = 0;
+        converted = new Mat();
+        encodeLock = new Object();
+        closed = false;
+    }
+
+    /**
+     * Sets the recorder's clock to the OpMode time.
+     * Call in init(), start() or every loop(), from any thread.
+     * @param time The current OpMode time (seconds).
+     */
+    public void syncClock(double time) {
+        clockOffset = time - System.nanoTime() / 1e9;
+    }
+
+    /**
+     * Offers a frame, which is copied and encoded in the background.
+     * Call from a single thread (e.g. the camera), in capture order.
+     * @param image The image (CV_8UC3 BGR or CV_8UC1 gray). Not retained.
+     * @param captureNanos When the image was captured (System.nanoTime()).
+     * @return Whether the frame was queued to be written.
+     */
+    public synchronized boolean offer(Mat image, long captureNanos) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        if (numOffered++ % stride != 0) {
+            numSkipped.incrementAndGet();
+            return false;
+        }
+        // Subsample harder while the encoder is behind.
+        int waiting = executor.getQueue().size();
+        if (waiting * 2 >= queueCapacity) {
+            stride = Math.min(stride * 2, MAX_STRIDE);
+        } else if (waiting == 0) {
+            stride = Math.max(stride / 2, 1);
+        }
+
+        final Mat copy = pool.acquire(image.rows(), image.cols(), image.type());
+        image.copyTo(copy);
+        final double time = captureNanos / 1e9 + clockOffset;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    encode(copy, time);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            pool.release(copy);
+            numDropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Stops the recorder, finishing the queued frames and closing the files.
+     * The files are closed even if the encoder does not finish in time, in
+     * which case the frames still queued are dropped.
+     * @param timeoutMillis Most time to wait for the encoder.
+     * @return Whether every queued frame was written and the files closed.
+     */
+    public boolean stop(long timeoutMillis) {
+        executor.shutdown();
+        boolean finished;
+        try {
+            finished = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
+        if (!finished) {
+            // Closing waits for the frame being encoded, but not the rest.
+            numDropped.addAndGet(executor.shutdownNow().size());
+        }
+        return close() && finished;
+    }
+
+    /**
+     * Closes the files, after the frame being encoded if any.
+     * @return Whether the files were closed.
+     */
+    private boolean close() {
+        synchronized (encodeLock) {
+            closed = true;
+            if (writer != null) {
+                writer.release();
+                writer = null;
+            }
+            converted.release();
+            pool.clear();
+            try {
+                index.flush();
+                indexOutput.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets the number of frames written.
+     */
+    public int getNumWritten() {
+        return numWritten.get();
+    }
+
+    /**
+     * Gets the number of frames skipped by subsampling.
+     */
+    public int getNumSkipped() {
+        return numSkipped.get();
+    }
+
+    /**
+     * Gets the number of frames dropped as the queue was full, or still
+     * queued when stop timed out.
+     */
+    public int getNumDropped() {
+        return numDropped.get();
+    }
+
+    /**
+     * Encodes a frame on the background thread.
+     */
+    private void encode(Mat image, double time) {
+        synchronized (encodeLock) {
+            if (closed) {
+                // Stopped while this frame waited for the files.
+                image.release();
+                numDropped.incrementAndGet();
+                return;
+            }
+            encodeOpen(image, time);
+        }
+    }
+
+    /**
+     * Encodes a frame while the files are open.
+     */
+    private void encodeOpen(Mat image, double time) {
+        try {
+            if (writer == null || framesInFile >= framesPerFile) {
+                openNext(image.size());
+            }
+            Mat bgr = image;
+            if (image.channels() == 1) {
+                Imgproc.cvtColor(image, converted, Imgproc.COLOR_GRAY2BGR);
+                bgr = converted;
+            }
+            if (bgr.width() != (int)frameSize.width ||
+                    bgr.height() != (int)frameSize.height) {
+                Imgproc.resize(bgr, converted, frameSize);
+                bgr = converted;
+            }
+            writer.write(bgr);
+
+            // Frames are encoded in capture order, but keep the index
+            // non-decreasing should the clock be synced backward.
+            lastTime = Math.max(lastTime, time);
+            index.write(new TimeseriesStream.DataPoint("videoFrame", lastTime,
+                                                       framesInFile));
+            framesInFile++;
+            numWritten.incrementAndGet();
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            pool.release(image);
+        }
+    }
+
+    /**
+     * Closes the current file and opens the next in the rotation.
+     */
+    private void openNext(Size size) throws Exception {
+        if (writer != null) {
+            writer.release();
+        }
+        File file = new File(directory, prefix + (numFiles % maxFiles) + ".avi");
+        frameSize = size;
+        writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'),
+                                 fps, frameSize, true);
+        if (!writer.isOpened()) {
+            writer = null;
+            throw new IllegalStateException("Unable to open " + file);
+        }
+        index.write(new TimeseriesStream.DataPoint("videoFile", lastTime, numFiles));
+        numFiles++;
+        framesInFile = 0;
+    }
+
+    // Largest N of keeping every Nth frame.
+    private static final int MAX_STRIDE = 8;
+
+    // The directory video is written to.
+    private File directory;
+    // The file name prefix.
+    private String prefix;
+    // The playback rate of the video.
+    private double fps;
+    // Frames written before rotating.
+    private int framesPerFile;
+    // Number of file names rotated through.
+    private int maxFiles;
+    // Most frames waiting to be encoded.
+    private int queueCapacity;
+    // The background encoder.
+    private ThreadPoolExecutor executor;
+    // Recycled frame copies.
+    private MatPool pool;
+    // The index file.
+    private FileOutputStream indexOutput;
+    // The frame index, only used by the encoder.
+    private TimeseriesStream.Writer index;
+    // OpMode time minus System.nanoTime() (seconds).
+    private volatile double clockOffset;
+    // Number of frames offered, only used by the producer.
+    private long numOffered;
+    // Keep one of every N frames offered.
+    private int stride;
+    // Number of frames written.
+    private AtomicInteger numWritten;
+    // Number of frames skipped by subsampling.
+    private AtomicInteger numSkipped;
+    // Number of frames dropped as the queue was full or at stop.
+    private AtomicInteger numDropped;
+    // The current file, null if none. Guarded by encodeLock.
+    private VideoWriter writer;
+    // Size of the current file's frames.
+    private Size frameSize;
+    // Number of files opened.
+    private int numFiles;
+    // Frames written to the current file.
+    private int framesInFile;
+    // Time of the last frame indexed (OpMode seconds).
+    private double lastTime;
+    // Reused buffer for frames converted to the file's format.
+    private Mat converted;
+    // Held while encoding or closing, so the files only close between
+    // frames. Not the recorder itself, which offer() holds.
+    private Object encodeLock;
+    // Whether the files were closed. Guarded by encodeLock.
+    private boolean closed;
+}
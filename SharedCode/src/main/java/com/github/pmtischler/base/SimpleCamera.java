@@ -1,52 +1,122 @@
 package com.github.pmtischler.base;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import android.os.Looper;
 import android.os.Handler;
 import android.os.Environment;
 import android.content.Context;
+import android.graphics.ImageFormat;
 import android.graphics.PixelFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.util.Log;
 import android.view.SurfaceHolder;
+import com.github.pmtischler.vision.Frame;
+import com.github.pmtischler.vision.FrameSource;
+import com.github.pmtischler.vision.LatencyHistogram;
+import com.github.pmtischler.vision.MatPool;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
 
 /**
  * Camera for taking pictures.
  * Manages the Android camera lifecycle and returns OpenCV images.
+ * In streaming mode, preview frames are converted straight from NV21 into
+ * preallocated callback buffers, skipping the JPEG encode and decode of
+ * taking a picture, so images are available at the preview rate.
+ * The latest image is handed over through a single slot mailbox (a newer
+ * image replaces an unread one), without locks on the capture path. Images
+ * come from a small pool; frames from takeFrame() return theirs on release.
+ * Consumers which only need intensity can stream the NV21 Y plane directly
+ * (see setFormat), skipping the color conversion entirely.
  */
-public class SimpleCamera implements Camera.PreviewCallback, Camera.PictureCallback {
+public class SimpleCamera
+    implements Camera.PreviewCallback, Camera.PictureCallback, FrameSource {
     /**
-     * Initializes the phone's camera.
+     * How streamed preview frames are handed over.
+     */
+    public enum Format {
+        // Converted to a BGR image.
+        BGR,
+        // Y plane only, as a grayscale image. Frames have no color image.
+        LUMA,
+        // Y plane and half resolution V/U plane, converted to BGR on demand.
+        LUMA_CHROMA
+    }
+
+    /**
+     * Initializes the phone's camera to take pictures.
      * Attempts to get the first camera, which should be the back camera.
      */
     public SimpleCamera(final Context context) {
+        this(context, false);
+    }
+
+    /**
+     * Initializes the phone's camera.
+     * Attempts to get the first camera, which should be the back camera.
+     * @param streaming Whether to capture preview frames rather than pictures.
+     */
+    public SimpleCamera(final Context context, final boolean streaming) {
+        this(context, streaming, null);
+    }
+
+    /**
+     * Initializes the phone's camera with the smallest preview size and
+     * frame rate which satisfy the consumers.
+     * Attempts to get the first camera, which should be the back camera.
+     * @param streaming Whether to capture preview frames rather than pictures.
+     * @param requirements What the consumers need, null to keep the
+     *   camera's default preview size and frame rate.
+     */
+    public SimpleCamera(final Context context, final boolean streaming,
+                        CaptureRequirements requirements) {
         this.context = context;
-        takingPicture = false;
+        this.streaming = streaming;
+        capturePending = new AtomicBoolean(false);
+        latest = new AtomicReference<Frame>(null);
+        pool = new MatPool(NUM_POOLED);
+        numDropped = new AtomicInteger(0);
+        decodeLatency = new LatencyHistogram(WINDOW_SIZE);
+        format = Format.BGR;
+        firstFrameNanos = 0;
+        pictureNanos = 0;
 
         // Open the camera.
         camera = Camera.open();
-        camera.setPreviewCallback(this);
-        camera.enableShutterSound(true);
+        if (requirements != null) {
+            negotiate(requirements);
+        }
+        if (streaming) {
+            setUpStreaming();
+        } else {
+            camera.setPreviewCallback(this);
+            camera.enableShutterSound(true);
+        }
 
         // Create surface on UI thread.
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             @Override
             public void run() {
                 synchronized(camera) {
-                    // Create a surface to hold images.
+                    // Create a surface to hold preview frames.
                     surfaceTexture = new SurfaceTexture(10);
-                    surfaceTexture.setDefaultBufferSize(
-                            camera.getParameters().getPictureSize().width,
-                            camera.getParameters().getPictureSize().height);
+                    Camera.Size size = camera.getParameters().getPreviewSize();
+                    surfaceTexture.setDefaultBufferSize(size.width, size.height);
                     try {
                         camera.setPreviewTexture(surfaceTexture);
+                        if (streaming) {
+                            // Frames flow continuously, captures pick one up.
+                            camera.startPreview();
+                        }
                     } catch (Exception e) {
                         Log.wtf(TAG, e);
                     }
@@ -57,100 +127,378 @@ public class SimpleCamera implements Camera.PreviewCallback, Camera.PictureCallb
 
     /**
      * Starts the process for capturing an image.
-     * The image will be available from takeImage().
+     * The image will be available from takeImage(). When streaming, the next
+     * preview frame is captured.
      * @return Whether the capture was started.
      */
+    @Override
     public boolean startCapture() {
-        synchronized(camera) {
-            if (surfaceTexture == null) {
-                return false;
-            }
-
-            if (takingPicture) {
-                return false;
-            } else {
+        if (surfaceTexture == null) {
+            return false;
+        }
+        if (!capturePending.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!streaming) {
+            synchronized(camera) {
                 camera.startPreview();
-                takingPicture = true;
-                return true;
             }
         }
+        return true;
     }
 
     /**
      * Gets the previously taken image.
+     * The caller owns the image, which is not returned to the pool.
+     * Streaming in the LUMA format has no color image, use takeFrame().
      * @return The taken image, or null if the image is not available yet.
      */
     public Mat takeImage() {
-        synchronized(this) {
-            Mat taken = img;
-            img = null;
-            return taken;
+        Frame taken = latest.getAndSet(null);
+        if (taken == null) {
+            return null;
         }
+        return taken.getImage();
+    }
+
+    /**
+     * Gets the previously taken image as a frame.
+     * Release the frame when done, which returns its buffers to the pool.
+     * @return The taken frame, or null if the image is not available yet.
+     */
+    @Override
+    public Frame takeFrame() {
+        return latest.getAndSet(null);
+    }
+
+    /**
+     * Gets the number of images replaced before they were taken.
+     */
+    public int getNumDropped() {
+        return numDropped.get();
+    }
+
+    /**
+     * Gets the time from each frame's capture until it was decoded.
+     * Pictures count from when they were requested, so this includes the
+     * picture round trip.
+     */
+    public LatencyHistogram getDecodeHistogram() {
+        return decodeLatency;
+    }
+
+    /**
+     * Sets how streamed preview frames are handed over.
+     * LUMA and LUMA_CHROMA frames are filled with a single bulk copy of the
+     * preview buffer; use Frame.getLuma() and Frame.getChroma() to read them.
+     * Has no effect when taking pictures, which are always BGR.
+     * @param format The format, BGR by default.
+     */
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Archives captured images in the background.
+     * Off by default, so capture never waits on disk.
+     * @param archiver The archiver, or null to not archive.
+     */
+    public void setArchiver(SnapshotArchiver archiver) {
+        this.archiver = archiver;
+    }
+
+    /**
+     * Creates an archiver for the public pictures directory, keeping every
+     * Nth capture as picture0.jpg to picture{maxFiles-1}.jpg.
+     * @param everyNth Keep one of every N captures.
+     * @param maxFiles Number of file names rotated through.
+     * @return The archiver, to pass to setArchiver.
+     */
+    public static SnapshotArchiver picturesArchiver(int everyNth, int maxFiles) {
+        return new SnapshotArchiver(
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                "picture", everyNth, maxFiles, 2);
+    }
+
+    /**
+     * Records captured images to video in the background.
+     * Off by default. Images streamed in the LUMA formats are recorded in
+     * grayscale, without converting them to color.
+     * @param recorder The recorder, or null to not record.
+     */
+    public void setRecorder(MatchRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Creates a recorder for the public movies directory, rotating through
+     * match0.avi to match{maxFiles-1}.avi, indexed in matchIndex.
+     * @param fps The playback rate of the video (frames per second).
+     * @param framesPerFile Frames written before rotating to the next file.
+     * @param maxFiles Number of file names rotated through.
+     * @return The recorder, to pass to setRecorder.
+     */
+    public static MatchRecorder moviesRecorder(double fps, int framesPerFile,
+                                               int maxFiles) throws Exception {
+        return new MatchRecorder(
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES),
+                "match", fps, framesPerFile, maxFiles, 4);
     }
 
     /**
      * Releases the camera.
      * Should be called when done with the camera to release it for future use.
+     * Cameras leased from the CameraManager are released by the manager;
+     * release the lease instead.
      */
+    @Override
     public void stop() {
         synchronized(camera) {
+            if (streaming) {
+                camera.stopPreview();
+            }
             camera.release();
         }
+        Frame unread = latest.getAndSet(null);
+        if (unread != null) {
+            unread.release();
+        }
+        pool.clear();
+    }
+
+    /**
+     * Gets when the camera delivered its first preview frame.
+     * @return The time (System.nanoTime()), 0 if none yet.
+     */
+    public long getFirstFrameNanos() {
+        return firstFrameNanos;
+    }
+
+    /**
+     * Forgets the unread frame, per-user settings and latencies, so the
+     * camera can be handed to another user without reopening it.
+     */
+    void reset() {
+        decodeLatency.reset();
+        capturePending.set(false);
+        Frame unread = latest.getAndSet(null);
+        if (unread != null) {
+            unread.release();
+        }
+        format = Format.BGR;
+        archiver = null;
+        recorder = null;
     }
 
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
+        if (firstFrameNanos == 0) {
+            firstFrameNanos = System.nanoTime();
+        }
+        if (streaming) {
+            onStreamFrame(data, camera);
+            return;
+        }
         Log.i(TAG, "Preview frame received.");
         try {
+            // Stamp the capture when the picture is requested, so latencies
+            // include the picture round trip. A shutter callback would stamp
+            // the exposure, but also plays the shutter sound.
+            pictureNanos = System.nanoTime();
             camera.takePicture(null, null, this);
         } catch (Exception e) {
             Log.e(TAG, "Take picture failed: " + e.toString());
-            synchronized(camera) {
-                takingPicture = false;
-            }
+            capturePending.set(false);
         }
     }
 
     @Override
     public void onPictureTaken(byte[] data, Camera camera) {
+        long captureNanos = pictureNanos;
         if (data == null) {
             Log.i(TAG, "No data.");
             return;
         }
         Log.i(TAG, "Picture taken: " + data.length);
 
-        try {
-            File file = new File(Environment.getExternalStoragePublicDirectory(
-                        Environment.DIRECTORY_PICTURES), "picture.jpg");
-            FileOutputStream output = new FileOutputStream(file);
-            output.write(data);
-            output.close();
-        } catch (Exception e) {
-            Log.e(TAG, e.toString());
+        SnapshotArchiver snapshots = archiver;
+        if (snapshots != null) {
+            snapshots.offer(data);
         }
 
         Mat jpeg = new MatOfByte(data);
         Mat decodedImg = Imgcodecs.imdecode(jpeg, Imgcodecs.CV_LOAD_IMAGE_COLOR);
+        record(decodedImg, captureNanos);
 
-        synchronized(this) {
-            img = decodedImg;
-        }
+        publish(new Frame(decodedImg, pool, captureNanos));
+    }
+
+    /**
+     * Gets the preview size in use.
+     * @return The {width, height} (pixels).
+     */
+    public int[] getPreviewSize() {
         synchronized(camera) {
-            takingPicture = false;
+            Camera.Size size = camera.getParameters().getPreviewSize();
+            return new int[] {size.width, size.height};
+        }
+    }
+
+    /**
+     * Picks the smallest preview size and frame rate range which satisfy
+     * the requirements.
+     */
+    private void negotiate(CaptureRequirements requirements) {
+        Camera.Parameters parameters = camera.getParameters();
+        List<int[]> sizes = new ArrayList<int[]>();
+        for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+            sizes.add(new int[] {size.width, size.height});
+        }
+        int[] size = requirements.chooseSize(sizes);
+        if (size != null) {
+            parameters.setPreviewSize(size[0], size[1]);
+            Log.i(TAG, "Preview size: " + size[0] + "x" + size[1]);
+        }
+        List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+        int[] range = ranges != null ? requirements.chooseFpsRange(ranges) : null;
+        if (range != null) {
+            parameters.setPreviewFpsRange(
+                    range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                    range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+            Log.i(TAG, "Preview fps: " + range[0] / 1000.0 + "-" + range[1] / 1000.0);
+        }
+        camera.setParameters(parameters);
+    }
+
+    /**
+     * Sets up streaming preview frames into preallocated NV21 buffers.
+     */
+    private void setUpStreaming() {
+        Camera.Parameters parameters = camera.getParameters();
+        parameters.setPreviewFormat(ImageFormat.NV21);
+        camera.setParameters(parameters);
+        Camera.Size size = parameters.getPreviewSize();
+
+        // NV21 is a full resolution Y plane followed by interleaved V/U at
+        // half resolution, which OpenCV views as a (3/2 height) x width image.
+        int bufferSize = size.width * size.height *
+                         ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        yuv = new Mat(size.height * 3 / 2, size.width, CvType.CV_8UC1);
+        camera.setPreviewCallbackWithBuffer(this);
+    }
+
+    /**
+     * Converts a streamed preview frame if a capture was started, then
+     * returns its buffer to the camera.
+     */
+    private void onStreamFrame(byte[] data, Camera camera) {
+        long captureNanos = System.nanoTime();
+        if (capturePending.get() && data.length >= yuv.total()) {
+            Format requested = format;
+            if (requested == Format.BGR) {
+                yuv.put(0, 0, data);
+                Mat decodedImg = pool.acquire(yuv.rows() * 2 / 3, yuv.cols(), CvType.CV_8UC3);
+                Imgproc.cvtColor(yuv, decodedImg, Imgproc.COLOR_YUV2BGR_NV21);
+                archive(decodedImg);
+                record(decodedImg, captureNanos);
+                publish(new Frame(decodedImg, pool, captureNanos));
+            } else {
+                publish(copyNv21(data, requested == Format.LUMA_CHROMA, captureNanos));
+            }
+        }
+        camera.addCallbackBuffer(data);
+    }
+
+    /**
+     * Copies the planes of a preview buffer into a pooled frame.
+     * @param chroma Whether to copy the V/U plane as well as the Y plane.
+     */
+    private Frame copyNv21(byte[] data, boolean chroma, long captureNanos) {
+        int height = yuv.rows() * 2 / 3;
+        Mat nv21 = pool.acquire(chroma ? yuv.rows() : height, yuv.cols(),
+                                CvType.CV_8UC1);
+        // One bulk copy, which stops at the end of the Mat, so a luma only
+        // buffer receives just the Y plane.
+        nv21.put(0, 0, data);
+        Frame frame = Frame.fromNv21(nv21, height, pool, captureNanos);
+        archive(frame.getLuma());
+        record(frame.getLuma(), captureNanos);
+        return frame;
+    }
+
+    /**
+     * Offers a captured image to the archiver, if any.
+     */
+    private void archive(Mat image) {
+        SnapshotArchiver snapshots = archiver;
+        if (snapshots != null) {
+            snapshots.offer(image);
+        }
+    }
+
+    /**
+     * Offers a captured image to the recorder, if any.
+     */
+    private void record(Mat image, long captureNanos) {
+        MatchRecorder video = recorder;
+        if (video != null) {
+            video.offer(image, captureNanos);
+        }
+    }
+
+    /**
+     * Hands a frame to the consumer, recycling any unread frame.
+     */
+    private void publish(Frame frame) {
+        decodeLatency.record(frame.getDecodeNanos() - frame.getCaptureNanos());
+        Frame unread = latest.getAndSet(frame);
+        if (unread != null) {
+            numDropped.incrementAndGet();
+            unread.release();
         }
+        capturePending.set(false);
     }
 
     // Tag used for logging.
     private static final String TAG = "pmtischler.SimpleCamera";
+    // Number of preview buffers cycled through the camera when streaming.
+    private static final int NUM_BUFFERS = 3;
+    // Most released images of each shape kept for reuse.
+    private static final int NUM_POOLED = 3;
+    // Samples kept by the decode latency histogram.
+    private static final int WINDOW_SIZE = 100;
 
     // The app context.
     private Context context;
     // Camera to take pictures with.
     private Camera camera;
-    // Surface which holds pictures taken.
-    private SurfaceTexture surfaceTexture;
+    // Surface which holds pictures taken, set on the UI thread.
+    private volatile SurfaceTexture surfaceTexture;
     // Whether the camera is already taking a picture.
-    private boolean takingPicture;
-    // The latest image.
-    private Mat img;
+    private AtomicBoolean capturePending;
+    // Whether preview frames are captured rather than pictures.
+    private boolean streaming;
+    // Reused view of a streamed NV21 frame.
+    private Mat yuv;
+    // How streamed frames are handed over.
+    private volatile Format format;
+    // The latest image, null once taken.
+    private AtomicReference<Frame> latest;
+    // Recycled images.
+    private MatPool pool;
+    // Number of images replaced before they were taken.
+    private AtomicInteger numDropped;
+    // Time from capture (preview callback, or picture request) until decoded.
+    private LatencyHistogram decodeLatency;
+    // When the pending picture was requested (System.nanoTime()).
+    private volatile long pictureNanos;
+    // When the first preview frame arrived, 0 if none yet.
+    private volatile long firstFrameNanos;
+    // Archives captured images, null to not archive.
+    private volatile SnapshotArchiver archiver;
+    // Records captured images to video, null to not record.
+    private volatile MatchRecorder recorder;
 }
@@ -0,0 +1,185 @@
+package com.github.pmtischler.base;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Archives camera snapshots to disk in the background.
+ * Writes happen on a single background thread with a bounded queue, so the
+ * capture path never waits on flash. Only every Nth snapshot is kept, and
+ * file names rotate so the archive stays a fixed size. When the queue is
+ * full, snapshots are dropped rather than blocking.
+ */
+public class SnapshotArchiver {
+    /**
+     * Creates an archiver.
+     * @param directory The directory snapshots are written to.
+     * @param prefix The file name prefix, e.g. "picture" for picture0.jpg.
+     * @param everyNth Keep one of every N snapshots offered.
+     * @param maxFiles Number of file names rotated through.
+     * @param queueCapacity Most snapshots waiting to be written.
+     */
+    public SnapshotArchiver(File directory, String prefix, int everyNth,
+                            int maxFiles, int queueCapacity) {
+        if (everyNth < 1 || maxFiles < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Counts must be at least 1.");
+        }
+        this.directory = directory;
+        this.prefix = prefix;
+        this.everyNth = everyNth;
+        this.maxFiles = maxFiles;
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                                          new ArrayBlockingQueue<Runnable>(queueCapacity));
+        numOffered = new AtomicInteger(0);
+        numQueued = new AtomicInteger(0);
+        numWritten = new AtomicInteger(0);
+        numDropped = new AtomicInteger(0);
+    }
+
+    /**
+     * Offers an encoded JPEG snapshot.
+     * @param jpeg The JPEG data. Must not be modified afterwards.
+     * @return Whether the snapshot was queued to be written.
+     */
+    public boolean offer(final byte[] jpeg) {
+        if (!sample()) {
+            return false;
+        }
+        final File file = nextFile();
+        return submit(new Runnable() {
+            @Override
+            public void run() {
+                write(file, jpeg);
+            }
+        });
+    }
+
+    /**
+     * Offers a decoded snapshot, which is copied and encoded in the background.
+     * @param image The image (CV_8UC3 BGR or CV_8UC1 gray). Not retained.
+     * @return Whether the snapshot was queued to be written.
+     */
+    public boolean offer(Mat image) {
+        if (!sample()) {
+            return false;
+        }
+        final File file = nextFile();
+        final Mat copy = image.clone();
+        boolean queued = submit(new Runnable() {
+            @Override
+            public void run() {
+                MatOfByte jpeg = new MatOfByte();
+                Imgcodecs.imencode(".jpg", copy, jpeg);
+                copy.release();
+                write(file, jpeg.toArray());
+                jpeg.release();
+            }
+        });
+        if (!queued) {
+            copy.release();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops the archiver, finishing the queued writes.
+     * @param timeoutMillis Most time to wait for the writes.
+     * @return Whether every queued write finished.
+     */
+    public boolean stop(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Gets the number of snapshots written.
+     */
+    public int getNumWritten() {
+        return numWritten.get();
+    }
+
+    /**
+     * Gets the number of sampled snapshots dropped as the queue was full.
+     */
+    public int getNumDropped() {
+        return numDropped.get();
+    }
+
+    /**
+     * Counts an offered snapshot.
+     * @return Whether it is one of every N to keep.
+     */
+    private boolean sample() {
+        return numOffered.getAndIncrement() % everyNth == 0;
+    }
+
+    /**
+     * Gets the next file name in the rotation.
+     */
+    private File nextFile() {
+        int index = numQueued.getAndIncrement() % maxFiles;
+        return new File(directory, prefix + index + ".jpg");
+    }
+
+    /**
+     * Queues a write, dropping it if the queue is full.
+     */
+    private boolean submit(Runnable write) {
+        try {
+            executor.execute(write);
+            return true;
+        } catch (RejectedExecutionException e) {
+            numDropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Writes a file on the background thread.
+     */
+    private void write(File file, byte[] data) {
+        try {
+            FileOutputStream output = new FileOutputStream(file);
+            try {
+                output.write(data);
+            } finally {
+                output.close();
+            }
+            numWritten.incrementAndGet();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The directory snapshots are written to.
+    private File directory;
+    // The file name prefix.
+    private String prefix;
+    // Keep one of every N snapshots.
+    private int everyNth;
+    // Number of file names rotated through.
+    private int maxFiles;
+    // The background writer.
+    private ThreadPoolExecutor executor;
+    // Number of snapshots offered.
+    private AtomicInteger numOffered;
+    // Number of snapshots given a file name.
+    private AtomicInteger numQueued;
+    // Number of snapshots written.
+    private AtomicInteger numWritten;
+    // Number of sampled snapshots dropped.
+    private AtomicInteger numDropped;
+}
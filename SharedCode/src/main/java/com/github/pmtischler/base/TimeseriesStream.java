@@ -63,6 +63,13 @@ public class TimeseriesStream {
             lastTimestamp = point.timestamp;
         }
 
+        /**
+         * Flushes written DataPoints to the output stream.
+         */
+        public void flush() throws Exception {
+            outputStream.flush();
+        }
+
         // The object output stream.
         private ObjectOutputStream outputStream;
         // The last timestamp seen.
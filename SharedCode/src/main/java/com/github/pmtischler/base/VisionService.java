@@ -0,0 +1,218 @@
+package com.github.pmtischler.base;
+
+import android.util.Log;
+import com.github.pmtischler.vision.BeaconLocator;
+import com.github.pmtischler.vision.Detection;
+import com.github.pmtischler.vision.Frame;
+import com.github.pmtischler.vision.FrameSource;
+import com.github.pmtischler.vision.LatencyBreakdown;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs detection on a worker thread.
+ * The worker takes each frame from the source (e.g. the camera), runs the
+ * locator on it and publishes the result. The OpMode loop only reads the
+ * latest result, so a slow detection never holds up the loop (and the motors).
+ * Start in init() or start(), stop in stop().
+ */
+public class VisionService {
+    /**
+     * A detection, stamped with when its frame was captured.
+     */
+    public static class Result {
+        // The detection, a copy owned by this result.
+        public final Detection detection;
+        // When the frame was captured (System.nanoTime()).
+        public final long captureNanos;
+        // When the frame was decoded (System.nanoTime()).
+        public final long decodeNanos;
+        // When the detection was published (System.nanoTime()).
+        public final long detectNanos;
+        // Time from capture until the detection was published (nanoseconds).
+        public final long latencyNanos;
+        // Time spent detecting (nanoseconds).
+        public final long processingNanos;
+        // Number of results published before this one.
+        public final long sequence;
+
+        /**
+         * Creates a Result.
+         * @param detection The detection.
+         * @param captureNanos When the frame was captured (System.nanoTime()).
+         * @param decodeNanos When the frame was decoded (System.nanoTime()).
+         * @param detectNanos When the detection was published (System.nanoTime()).
+         * @param latencyNanos Time from capture until the detection was published.
+         * @param processingNanos Time spent detecting.
+         * @param sequence Number of results published before this one.
+         */
+        public Result(Detection detection, long captureNanos, long decodeNanos,
+                      long detectNanos, long latencyNanos, long processingNanos,
+                      long sequence) {
+            this.detection = detection;
+            this.captureNanos = captureNanos;
+            this.decodeNanos = decodeNanos;
+            this.detectNanos = detectNanos;
+            this.latencyNanos = latencyNanos;
+            this.processingNanos = processingNanos;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Gets how long ago the frame was captured.
+         * @return The age (seconds).
+         */
+        public double getAgeSeconds() {
+            return (System.nanoTime() - captureNanos) / 1e9;
+        }
+    }
+
+    /**
+     * Creates a stopped service.
+     * @param source The source frames are taken from. Captures are started
+     *   by the caller (e.g. when a new frame is needed).
+     * @param locator The locator run on each frame, only from the worker.
+     */
+    public VisionService(FrameSource source, BeaconLocator locator) {
+        this.source = source;
+        this.locator = locator;
+        latest = new AtomicReference<Result>(null);
+        worker = null;
+        running = false;
+        numPublished = 0;
+        numErrors = 0;
+        latencies = new LatencyBreakdown(WINDOW_SIZE, "decode", "queue", "detect");
+    }
+
+    /**
+     * Starts the worker thread, if not already running.
+     * @throws IllegalStateException If a worker which failed to stop is still
+     *   detecting, as two workers would share the locator.
+     */
+    public synchronized void start() {
+        if (worker != null && worker.isAlive()) {
+            if (running) {
+                return;
+            }
+            throw new IllegalStateException("Previous worker has not stopped.");
+        }
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, "VisionService");
+        worker.start();
+    }
+
+    /**
+     * Stops the worker thread, waiting for the current detection to finish.
+     * If the worker does not stop in time it is kept, so the service cannot
+     * be restarted until a later stop succeeds.
+     * @param timeoutMillis Most time to wait for the worker.
+     * @return Whether the worker stopped.
+     */
+    public synchronized boolean stop(long timeoutMillis) {
+        if (worker == null) {
+            return true;
+        }
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            return false;
+        }
+        worker = null;
+        return true;
+    }
+
+    /**
+     * Gets the latest result without blocking.
+     * @return The result, null if none was published yet.
+     */
+    public Result getLatest() {
+        return latest.get();
+    }
+
+    /**
+     * Gets the latencies of each frame detected: capture until decoded,
+     * waiting for the worker, and detecting.
+     */
+    public LatencyBreakdown getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Gets the number of frames which failed to be detected.
+     */
+    public int getNumErrors() {
+        return numErrors;
+    }
+
+    /**
+     * Takes frames and publishes their detections until stopped.
+     * Sources hand frames over without blocking, which keeps the camera's
+     * capture path free of locks, so the worker polls. This adds at most
+     * POLL_MILLIS to each frame's wait (the "queue" latency), small next to
+     * detection, and idles at a negligible number of wakeups.
+     */
+    private void work() {
+        while (running) {
+            Frame frame = source.takeFrame();
+            if (frame == null) {
+                try {
+                    Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    // Stop requested.
+                }
+                continue;
+            }
+            try {
+                long start = System.nanoTime();
+                Detection detection = locator.locate(frame);
+                long end = System.nanoTime();
+                latencies.record(frame.getCaptureNanos(), frame.getDecodeNanos(),
+                                 start, end);
+                // Publish a copy, as the locator may keep using its
+                // outputs (e.g. a reused detection) on this thread.
+                latest.set(new Result(detection.copy(), frame.getCaptureNanos(),
+                                      frame.getDecodeNanos(), end,
+                                      end - frame.getCaptureNanos(), end - start,
+                                      numPublished++));
+            } catch (RuntimeException e) {
+                numErrors++;
+                Log.e(TAG, "Detection failed: " + e.toString());
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    // Tag used for logging.
+    private static final String TAG = "pmtischler.VisionService";
+    // Time waited for a frame before checking again (milliseconds).
+    private static final long POLL_MILLIS = 5;
+    // Samples kept by the latency histograms.
+    private static final int WINDOW_SIZE = 100;
+
+    // The source frames are taken from.
+    private FrameSource source;
+    // The locator run on each frame.
+    private BeaconLocator locator;
+    // The latest result, null if none.
+    private AtomicReference<Result> latest;
+    // The worker, null if stopped. Kept while a stop timed out.
+    private Thread worker;
+    // Whether the worker should keep running.
+    private volatile boolean running;
+    // Number of results published, only used by the worker.
+    private long numPublished;
+    // Number of frames which failed to be detected.
+    private volatile int numErrors;
+    // Latencies of each frame detected.
+    private LatencyBreakdown latencies;
+}
@@ -1,15 +1,38 @@
 package com.github.pmtischler.opmode;
 
+import android.content.Context;
 import android.hardware.Camera;
 import android.util.Log;
+import com.github.pmtischler.base.CameraManager;
+import com.github.pmtischler.base.CaptureRequirements;
+import com.github.pmtischler.base.MatchRecorder;
 import com.github.pmtischler.base.SimpleCamera;
+import com.github.pmtischler.base.VisionService;
 import com.github.pmtischler.vision.BeaconDetector;
+import com.github.pmtischler.vision.BeaconLocator;
+import com.github.pmtischler.vision.BeaconTracker;
+import com.github.pmtischler.vision.ColorLookupTable;
+import com.github.pmtischler.vision.Detection;
+import com.github.pmtischler.vision.Frame;
+import com.github.pmtischler.vision.LatencyBreakdown;
+import com.github.pmtischler.vision.LatencyHistogram;
+import com.github.pmtischler.vision.MotionGatedLocator;
+import com.github.pmtischler.vision.Palette;
+import com.github.pmtischler.vision.Pipeline;
+import com.github.pmtischler.vision.ResolutionController;
+import com.github.pmtischler.vision.RoiTracker;
 import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
 import com.qualcomm.robotcore.eventloop.opmode.Disabled;
 import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 import com.qualcomm.robotcore.hardware.Servo;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 
 /**
@@ -26,53 +49,118 @@ public class BeaconPress extends OpMode {
         // Load the OpenCV library.
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 
-        // Create the camera.
-        camera = new SimpleCamera(hardwareMap.appContext);
+        // Create the camera, streaming preview frames to avoid the JPEG
+        // round trip of taking pictures. The detector shrinks every image,
+        // so only capture the smallest preview which still leaves ~200
+        // pixels across at the finest detector level. The camera is leased
+        // from the shared manager, so it is already warm after another run.
+        cameraLease = CameraManager.getInstance().acquire(
+                hardwareMap.appContext, true,
+                new CaptureRequirements().require(
+                        MIN_IMAGE_WIDTH, MIN_IMAGE_HEIGHT, MIN_CAPTURE_FPS));
+        camera = cameraLease.getCamera();
+        // Optionally record what the detector saw, for post-match analysis.
+        recorder = null;
+        if (RECORD_VIDEO) {
+            try {
+                recorder = SimpleCamera.moviesRecorder(10, 600, 3);
+                camera.setRecorder(recorder);
+            } catch (Exception e) {
+                Log.e(TAG, "Unable to record video: " + e.toString());
+            }
+        }
         // No picture yet.
         lastPictureTime = 0;
 
-        // Create the detector.
+        // Create the detector, with resolution chosen to detect within 0.2s.
         detector = new BeaconDetector();
+        int cores = Runtime.getRuntime().availableProcessors();
+        workerPool = Executors.newFixedThreadPool(cores);
+        detector.setWorkerPool(workerPool, cores);
+        resolution = new ResolutionController(
+                0.2, ResolutionController.DEFAULT_LEVELS, detector.getDownscale());
 
-        // Create the colors of interest.
-        int[][] red_blue = {{0, 0, 255}, {255, 0, 0}};
-        colors = new Mat(red_blue.length, 3, CvType.CV_32F);
-        for (int i = 0; i < red_blue.length; i++) {
-            for (int d = 0; d < 3; d++) {
-                double[] c = {red_blue[i][d]};
-                colors.put(i, d, c);
-            }
+        // Use the calibrated palette if one was saved, which allows fewer
+        // clusters than the pure red/blue fallback.
+        Palette palette = loadPalette();
+        if (palette != null) {
+            colors = palette.toMat();
+            totalClusters = colors.height() + 1;
+        } else {
+            colors = new Palette(PaletteCalibration.SEED_COLORS).toMat();
+            totalClusters = 5;
         }
 
+        // Fuse detections over time, with a new picture needed once the
+        // beacon position is uncertain by more than 5% of the image.
+        beaconTracker = new BeaconTracker(colors.height(), 0.01, 0.0004);
+        beaconTracker.setMaxUncertainty(0.05);
+
         // Get the servos.
         left = (Servo)hardwareMap.get("left_servo");
         right = (Servo)hardwareMap.get("right_servo");
+
+        // Detect on a worker thread so the loop never waits on detection.
+        vision = new VisionService(camera, new BeaconLocator() {
+            @Override
+            public Detection locate(Frame frame) {
+                return detect(frame);
+            }
+        });
+        vision.start();
+        lastSequence = -1;
+        // Time from capture until the servos act on the detection.
+        decisionLatency = new LatencyBreakdown(Pipeline.WINDOW_SIZE,
+                                               "decode", "detect", "actuate");
     }
 
     /**
      * Detects the colors, actuates the appropriate servo.
      */
     public void loop() {
-        // Take picture every 1 second.
-        if (time > 1 + lastPictureTime) {
+        if (recorder != null) {
+            // Index video frames on the same clock as BlackBox recordings.
+            recorder.syncClock(time);
+        }
+        // Only take a picture once the beacon prediction is too uncertain
+        // (at most every MIN_PICTURE_PERIOD). The tracker itself stays at
+        // the last capture time, so late detections can still be fused.
+        if (beaconTracker.needsMeasurement(time) &&
+                time > MIN_PICTURE_PERIOD + lastPictureTime) {
             if (camera.startCapture()) {
                 telemetry.addLine("Taking picture.");
                 lastPictureTime = time;
             }
         }
 
-        // Get the latest image.
-        Mat img = camera.takeImage();
-        if (img == null) {
-            // Image is not yet available.
+        // Fuse the latest detection at the time its image was taken, once
+        // per result, and only if it was not reused from an earlier frame.
+        VisionService.Result result = vision.getLatest();
+        VisionService.Result fused = null;
+        if (result != null && result.sequence != lastSequence) {
+            lastSequence = result.sequence;
+            if (!result.detection.reused) {
+                fused = result;
+                beaconTracker.update(result.detection, toOpModeTime(result));
+            }
+            telemetry.addData("Latency (ms)", result.latencyNanos / 1e6);
+            telemetry.addData("Resolution", result.detection.width + "x" +
+                              result.detection.height + " (1/" +
+                              result.detection.downscale + ")");
+        }
+        showTimings();
+        telemetry.addData("Camera first frame (s)",
+                          cameraLease.getTimeToFirstFrame() +
+                          (cameraLease.wasWarm() ? " (warm)" : " (cold)"));
+        if (!beaconTracker.isInitialized()) {
+            // Beacon not yet found.
             return;
         }
-        telemetry.addLine("Image available, detecting position.");
+        telemetry.addData("Uncertainty", beaconTracker.getUncertainty(time));
 
-        // Use the current image to detect red/blue.
-        Mat positions = detector.detect(img, 5, colors);
         // If red on left, actuate left servo. Otherwise actuate right.
-        if (positions.get(0, 0)[0] < positions.get(1, 0)[0]) {
+        if (beaconTracker.predictPosition(0, time)[0] <
+                beaconTracker.predictPosition(1, time)[0]) {
             Log.i(TAG, "Left beacon.");
             left.setPosition(1);
             right.setPosition(0);
@@ -81,25 +169,221 @@ public class BeaconPress extends OpMode {
             left.setPosition(0);
             right.setPosition(1);
         }
+        if (fused != null) {
+            decisionLatency.record(fused.captureNanos, fused.decodeNanos,
+                                   fused.detectNanos, System.nanoTime());
+        }
+    }
+
+    /**
+     * Converts the capture time of a result to OpMode time.
+     * @param result The result.
+     * @return The time (sec), never before the tracker's last update.
+     */
+    private double toOpModeTime(VisionService.Result result) {
+        double captureTime = time - result.getAgeSeconds();
+        double trackerTime = beaconTracker.getTime();
+        if (!Double.isNaN(trackerTime)) {
+            // Captures are in order, so this only absorbs clock jitter.
+            captureTime = Math.max(captureTime, trackerTime);
+        }
+        return captureTime;
+    }
+
+    /**
+     * Detects red/blue in a frame.
+     * Runs on the vision worker thread.
+     * @param frame The frame.
+     * @return The detection.
+     */
+    private Detection detect(Frame frame) {
+        // Use the first image to calibrate the color table, which makes
+        // detection on later images a lookup rather than clustering.
+        if (table == null) {
+            ArrayList<Mat> calibration = new ArrayList<Mat>();
+            calibration.add(frame.getImage());
+            table = ColorLookupTable.train(calibration, 9, totalClusters, colors,
+                                           colors.height() + 2, 1.0, 3);
+            tracker = new RoiTracker(detector, table);
+            // Reuse the last detection while the scene is unchanged.
+            gate = new MotionGatedLocator(tracker, 4, 10);
+        }
+
+        // Use the current image to detect red/blue, searching only around
+        // the last position once the beacon has been found.
+        // The frame shares resized views between the locators.
+        detector.setDownscale(resolution.getDownscale());
+        // The gate's thumbnail shares the detector's downscaled view.
+        gate.setViewDownscale(resolution.getDownscale());
+        long start = System.nanoTime();
+        Detection detection = gate.locate(frame);
+        // Region searches run at their own downscale, so only full frame
+        // searches time the controller's downscale.
+        if (!gate.wasLastSkipped() && tracker.wasLastFullFrame()) {
+            resolution.update(System.nanoTime() - start);
+        }
+        return detection;
+    }
+
+    /**
+     * Shows the detector metrics.
+     */
+    private void showTimings() {
+        MotionGatedLocator current = gate;
+        if (current != null) {
+            telemetry.addData("Skip rate", current.getSkipRate());
+            telemetry.addData("Saved (s)", current.getSavedSeconds());
+        }
+        // Detection always uses the lookup table once trained.
+        Pipeline<Frame, Detection> pipeline = detector.getLookupPipeline();
+        for (int i = 0; i < pipeline.getNumStages(); i++) {
+            telemetry.addData(pipeline.getStageName(i),
+                              pipeline.getHistogram(i).summary());
+        }
+        telemetry.addData("Capture to servo",
+                          decisionLatency.getTotalHistogram().summary());
+    }
+
+    /**
+     * Loads the palette saved by PaletteCalibration.
+     * @return The palette, null if none was saved.
+     */
+    private Palette loadPalette() {
+        try {
+            FileInputStream input = hardwareMap.appContext.openFileInput(
+                    PaletteCalibration.PALETTE_FILE);
+            try {
+                Palette palette = Palette.read(input);
+                telemetry.addLine("Loaded calibrated palette.");
+                return palette;
+            } finally {
+                input.close();
+            }
+        } catch (Exception e) {
+            Log.i(TAG, "No calibrated palette, using pure red/blue.");
+            return null;
+        }
     }
 
     public void stop() {
-        // Stop the camera so can be used in future runs.
-        camera.stop();
+        // Stop detecting before the camera and detector threads go away.
+        if (!vision.stop(1000)) {
+            Log.e(TAG, "Vision worker did not stop.");
+        }
+        if (recorder != null) {
+            camera.setRecorder(null);
+            if (!recorder.stop(2000)) {
+                Log.e(TAG, "Video recorder did not finish.");
+            }
+            Log.i(TAG, "Video frames written " + recorder.getNumWritten() +
+                  ", skipped " + recorder.getNumSkipped() +
+                  ", dropped " + recorder.getNumDropped());
+        }
+        // Return the camera so can be used in future runs.
+        LatencyHistogram decodeLatency = camera.getDecodeHistogram();
+        cameraLease.release();
         camera = null;
+        // Stop the detector threads.
+        workerPool.shutdown();
+        writeTimings();
+        writeLatencies(decodeLatency);
+    }
+
+    /**
+     * Writes the detector stage timings to the log and a file.
+     */
+    private void writeTimings() {
+        StringWriter report = new StringWriter();
+        detector.getLookupPipeline().writeReport(new PrintWriter(report));
+        Log.i(TAG, "Stage timings:\n" + report);
+        writeFile(TIMINGS_FILE, report.toString());
+    }
+
+    /**
+     * Writes the capture to decision latencies to the log and a file.
+     * @param decodeLatency The camera's decode latencies.
+     */
+    private void writeLatencies(LatencyHistogram decodeLatency) {
+        StringWriter report = new StringWriter();
+        PrintWriter writer = new PrintWriter(report);
+        writer.println("camera first frame: " + cameraLease.getTimeToFirstFrame() +
+                       " s (" + (cameraLease.wasWarm() ? "warm" : "cold") + ")");
+        writer.println("camera decode: " + decodeLatency.summary());
+        writer.println("vision worker:");
+        vision.getLatencies().writeReport(writer);
+        writer.println("capture to servo:");
+        decisionLatency.writeReport(writer);
+        Log.i(TAG, "Latencies:\n" + report);
+        writeFile(LATENCY_FILE, report.toString());
+    }
+
+    /**
+     * Writes a report to a file of the app.
+     */
+    private void writeFile(String file, String report) {
+        try {
+            FileOutputStream output = hardwareMap.appContext.openFileOutput(
+                    file, Context.MODE_PRIVATE);
+            try {
+                output.write(report.getBytes("UTF-8"));
+            } finally {
+                output.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
     // Tag used for logging.
     private static final String TAG = "pmtischler.BeaconPress";
+    // File the detector stage timings are written to.
+    private static final String TIMINGS_FILE = "beaconTimings.txt";
+    // File the capture to decision latencies are written to.
+    private static final String LATENCY_FILE = "beaconLatency.txt";
+    // Shortest time between pictures (sec).
+    private static final double MIN_PICTURE_PERIOD = 0.25;
+    // Least preview size (pixels).
+    private static final int MIN_IMAGE_WIDTH = 640;
+    private static final int MIN_IMAGE_HEIGHT = 480;
+    // Least preview frame rate (frames per second), well above the rate
+    // pictures are needed so a capture waits at most one short frame.
+    private static final double MIN_CAPTURE_FPS = 15;
+    // Whether to record the captured frames to video.
+    private static final boolean RECORD_VIDEO = false;
 
     // Used to take pictures of the beacon.
     private SimpleCamera camera;
+    // Lease on the shared camera.
+    private CameraManager.Lease cameraLease;
+    // Records the captured frames, null if not recording.
+    private MatchRecorder recorder;
     // Last image picture time.
     private double lastPictureTime;
-    // The detector.
+    // The detector. After init it is only used on the vision worker, as are
+    // the table, tracker and gate; the loop only reads their metrics.
     private BeaconDetector detector;
+    // Threads the detector classifies tiles on.
+    private ExecutorService workerPool;
+    // Chooses the detector resolution from detection times.
+    private ResolutionController resolution;
     // The colors of interest.
     private Mat colors;
+    // The total clusters of colors to find.
+    private int totalClusters;
+    // The color table calibrated from the first image.
+    private ColorLookupTable table;
+    // Tracks the beacon region between images.
+    private RoiTracker tracker;
+    // Skips detection when the scene is unchanged.
+    private volatile MotionGatedLocator gate;
+    // Runs detection on a worker thread.
+    private VisionService vision;
+    // Sequence of the last detection fused.
+    private long lastSequence;
+    // Time from capture until the servos act on each detection.
+    private LatencyBreakdown decisionLatency;
+    // Fuses detections and predicts between pictures.
+    private BeaconTracker beaconTracker;
     // The servos.
     private Servo left;
     private Servo right;
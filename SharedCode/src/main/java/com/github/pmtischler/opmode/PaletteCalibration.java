@@ -0,0 +1,121 @@
+package com.github.pmtischler.opmode;
+
+import android.content.Context;
+import android.util.Log;
+import com.github.pmtischler.base.CameraManager;
+import com.github.pmtischler.base.SimpleCamera;
+import com.github.pmtischler.vision.Palette;
+import com.qualcomm.robotcore.eventloop.opmode.Autonomous;
+import com.qualcomm.robotcore.eventloop.opmode.Disabled;
+import com.qualcomm.robotcore.eventloop.opmode.OpMode;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Palette calibration mode.
+ * Point the camera at the beacon under match lighting and run this mode. It
+ * takes sample pictures, learns how red and blue appear to the camera, and
+ * saves the palette for BeaconPress to load.
+ */
+@Autonomous(name="pmtischler.PaletteCalibration", group="pmtischler")
+@Disabled
+public class PaletteCalibration extends OpMode {
+    // File the palette is saved to.
+    public static final String PALETTE_FILE = "beaconPalette";
+    // Approximate colors of interest (red, blue), in image channel order.
+    public static final float[][] SEED_COLORS = {{0, 0, 255}, {255, 0, 0}};
+
+    /**
+     * Initializes the camera.
+     */
+    public void init() {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Lease the shared camera, which stays open between OpModes.
+        cameraLease = CameraManager.getInstance().acquire(
+                hardwareMap.appContext, false, null);
+        camera = cameraLease.getCamera();
+        lastPictureTime = 0;
+        samples = new ArrayList<Mat>();
+        palette = null;
+    }
+
+    /**
+     * Takes sample pictures, then learns and saves the palette.
+     */
+    public void loop() {
+        if (palette != null) {
+            showPalette();
+            return;
+        }
+
+        // Take picture every 1 second.
+        if (time > 1 + lastPictureTime) {
+            if (camera.startCapture()) {
+                lastPictureTime = time;
+            }
+        }
+        Mat img = camera.takeImage();
+        if (img != null) {
+            samples.add(img);
+        }
+        telemetry.addData("Samples", samples.size() + "/" + NUM_SAMPLES);
+        if (samples.size() < NUM_SAMPLES) {
+            return;
+        }
+
+        // Extra clusters absorb the background while learning.
+        palette = Palette.learn(samples, SEED_COLORS, 9, 5,
+                                SEED_COLORS.length + 2, 1.0, 3);
+        try {
+            FileOutputStream output = hardwareMap.appContext.openFileOutput(
+                    PALETTE_FILE, Context.MODE_PRIVATE);
+            try {
+                palette.write(output);
+            } finally {
+                output.close();
+            }
+            Log.i(TAG, "Saved palette.");
+        } catch (Exception e) {
+            e.printStackTrace();
+            requestOpModeStop();
+        }
+        samples.clear();
+    }
+
+    public void stop() {
+        // Return the camera so can be used in future runs.
+        cameraLease.release();
+        camera = null;
+    }
+
+    /**
+     * Shows the learned colors.
+     */
+    private void showPalette() {
+        for (int i = 0; i < palette.size(); i++) {
+            float[] color = palette.getColor(i);
+            telemetry.addData("Color " + i,
+                              (int)color[0] + " " + (int)color[1] + " " + (int)color[2]);
+        }
+    }
+
+    // Tag used for logging.
+    private static final String TAG = "pmtischler.PaletteCalibration";
+    // Number of sample pictures to learn from.
+    private static final int NUM_SAMPLES = 5;
+
+    // Used to take pictures of the beacon.
+    private SimpleCamera camera;
+    // Lease on the shared camera.
+    private CameraManager.Lease cameraLease;
+    // Last image picture time.
+    private double lastPictureTime;
+    // The sample pictures.
+    private ArrayList<Mat> samples;
+    // The learned palette, null until learned.
+    private Palette palette;
+}
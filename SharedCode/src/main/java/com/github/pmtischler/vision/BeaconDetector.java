@@ -1,14 +1,11 @@
 package com.github.pmtischler.vision;
 
 import com.github.pmtischler.base.Vector2d;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.concurrent.ExecutorService;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.Size;
 import org.opencv.core.TermCriteria;
-import org.opencv.imgproc.Imgproc;
 
 /**
  * Beacon detector.
@@ -18,21 +15,161 @@ import org.opencv.imgproc.Imgproc;
  *   + Cluster pixel colors into K clusters by euclidean distance in RGB space.
  *   + Find the clusters closest to red and blue (N=2 colors of interst).
  *   + Find median along x,y for each color cluster.
+ * The logical image (detected colors and medians) is only rendered when a
+ * DebugSink is attached.
  * Assumptions:
  *   + Red and blue are in the top K colors- most of the image is the beacon.
  *   + The cluster centroid is the beacon center- most of red/blue is beacon.
  *   + The image is a decently cropped picture of the beacon, with red/blue
  *     mostly coming from the beacon and not the background.
+ * For a fixed palette, the clustering can be done once up front with a
+ * ColorLookupTable, after which each frame only needs a table lookup per
+ * pixel. With a BlobLocalizer, each color is localized by its largest
+ * plausible blob instead, which relaxes the cropping assumption.
+ * Pure red and blue rarely match real photos; a Palette learned from sample
+ * images allows fewer clusters.
+ * Both methods run as a Pipeline of stages, whose timings show where the
+ * detection time goes.
+ * A detector holds per-call state (downscale, stage parameters and
+ * buffers), as do the RoiTracker and MotionGatedLocator wrapping it, so it
+ * is not thread safe. Use each from one thread, e.g. only from the worker
+ * of a VisionService; the stage timings may be read from any thread.
  */
-public class BeaconDetector {
+public class BeaconDetector implements BeaconLocator {
+    /**
+     * Receives the rendered logical image for debugging.
+     */
+    public static interface DebugSink {
+        /**
+         * Called with the logical image after each detection.
+         * @param rendered The detected colors at the processed resolution,
+         *   with the median of each color marked. Only valid during the call.
+         */
+        public void render(Mat rendered);
+    }
+
     /**
      * Create a beacon detector.
      */
-    public BeaconDetector() { }
+    public BeaconDetector() {
+        this(0, null);
+    }
+
+    /**
+     * Create a beacon detector with the colors used by locate(Mat).
+     * @param totalClusters The total clusters of colors to find.
+     * @param colors Colors (Nx3 RGB) to search for.
+     */
+    public BeaconDetector(int totalClusters, Mat colors) {
+        checkTotalClusters(totalClusters);
+        this.totalClusters = totalClusters;
+        this.colors = colors;
+        table = null;
+        downscale = 9;
+        blobLocalizer = null;
+        debugSink = null;
+        tileClassifier = new TileClassifier(null, 1);
+
+        // Detection as stage chains, timed per stage.
+        ResizeStage resize = new ResizeStage();
+        LocalizeStage localize = new LocalizeStage();
+        kmeansStage = new KmeansStage();
+        classifyStage = new ClassifyStage();
+        clusterPipeline = Pipeline.of(resize).then(new FeaturesStage())
+                                  .then(kmeansStage).then(localize);
+        lookupPipeline = Pipeline.of(resize).then(classifyStage).then(localize);
+    }
+
+    /**
+     * Sets the lookup table used by locate(Mat) instead of clustering.
+     * @param table The lookup table, or null to cluster.
+     */
+    public void setLookupTable(ColorLookupTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Runs lookup table classification in parallel tiles.
+     * Results are identical to running on the calling thread.
+     * @param workerPool The pool to run tiles on, or null to run on the caller.
+     * @param numTiles The number of horizontal tiles to split images into.
+     */
+    public void setWorkerPool(ExecutorService workerPool, int numTiles) {
+        tileClassifier = new TileClassifier(workerPool, numTiles);
+    }
+
+    /**
+     * Localizes colors by their largest plausible blob instead of the median
+     * of all their pixels.
+     * @param blobLocalizer The blob localizer, or null to use the median.
+     */
+    public void setBlobLocalizer(BlobLocalizer blobLocalizer) {
+        this.blobLocalizer = blobLocalizer;
+    }
+
+    /**
+     * Attaches a sink to receive the rendered logical image.
+     * Rendering is skipped entirely when no sink is attached.
+     * @param debugSink The sink, or null to disable rendering.
+     */
+    public void setDebugSink(DebugSink debugSink) {
+        this.debugSink = debugSink;
+    }
+
+    /**
+     * Sets the factor images are shrunk by before detection.
+     * Larger factors trade accuracy for speed.
+     * @param downscale The downscale factor (at least 1).
+     */
+    public void setDownscale(int downscale) {
+        if (downscale < 1) {
+            throw new IllegalArgumentException("Downscale must be at least 1.");
+        }
+        this.downscale = downscale;
+    }
+
+    /**
+     * Gets the factor images are shrunk by before detection.
+     */
+    public int getDownscale() {
+        return downscale;
+    }
+
+    /**
+     * Detects a beacon with the lookup table if set, else by clustering the
+     * colors given at construction.
+     * @param frame The frame to detect the beacon inside.
+     * @return The detection.
+     */
+    @Override
+    public Detection locate(Frame frame) {
+        if (table != null) {
+            return locate(frame, table);
+        }
+        if (colors == null) {
+            throw new IllegalStateException("No colors or lookup table to detect.");
+        }
+        return locate(frame, totalClusters, colors, colors.height() + 2, 1.0, 3);
+    }
+
+    /**
+     * Detects a beacon with the lookup table if set, else by clustering the
+     * colors given at construction.
+     * @param img The image to detect the beacon inside. Left unchanged.
+     * @return The detection.
+     */
+    public Detection locate(Mat img) {
+        Frame frame = new Frame(img);
+        try {
+            return locate(frame);
+        } finally {
+            frame.release();
+        }
+    }
 
     /**
      * Detects a beacon.
-     * @param origImg The image to detect the beacon inside. Overwritten with logical image.
+     * @param origImg The image to detect the beacon inside. Left unchanged.
      * @param totalClusters The total clusters of colors to find.
      * @param colors Colors (Nx3 RGB) to search for. Naive blue/red is {[255,
      *   0, 0], [0, 0, 255]}. You can take pictures with the camera to try and
@@ -52,7 +189,7 @@ public class BeaconDetector {
 
     /**
      * Detects a beacon.
-     * @param origImg The image to detect the beacon inside. Overwritten with logical image.
+     * @param origImg The image to detect the beacon inside. Left unchanged.
      * @param totalClusters The total clusters of colors to find.
      * @param colors Colors (Nx3 RGB) to search for. Naive blue/red is {[255,
      *   0, 0], [0, 0, 255]}. You can take pictures with the camera to try and
@@ -66,93 +203,552 @@ public class BeaconDetector {
     public Mat detect(Mat origImg, int totalClusters, Mat colors,
                       int clusterIterations, double clusterEpsilon,
                       int clusterAttempts) {
-        // Resize image to trade accuracy for speed.
-        Mat img = new Mat();
-        Imgproc.resize(origImg, img,
-                       new Size(origImg.width()/9, origImg.height()/9));
-        // Change format due to unsigned.
-        Mat converted = new Mat();
-        img.convertTo(converted, CvType.CV_32FC3);
-        img = converted;
-
-        // Cluster pixels into K color clusters.
-        Mat colorSeq = new Mat(img.width() * img.height(), 3, CvType.CV_32F);
-        for (int y = 0; y < img.height(); y++) {
-            for (int x = 0; x < img.width(); x++) {
-                int index = y * img.width() + x;
-                float[] colorInt = new float[3];
-                img.get(y, x, colorInt);
-                for (int c = 0; c < 3; c++) {
-                    float[] colorDouble = {colorInt[c]};
-                    colorSeq.put(index, c, colorDouble);
-                }
-            }
+        return locate(origImg, totalClusters, colors, clusterIterations,
+                      clusterEpsilon, clusterAttempts).positions;
+    }
+
+    /**
+     * Detects a beacon, returning the positions along with detection stats.
+     * @param origImg The image to detect the beacon inside. Left unchanged.
+     * @param totalClusters The total clusters of colors to find.
+     * @param colors Colors (Nx3 RGB) to search for.
+     * @param clusterIterations Number of iterations when performing kmeans clustering.
+     * @param clusterEpsilon Epsilon where clustering can be terminated.
+     * @param clusterAttempts Number of attempts (e.g. random initialization) to cluster.
+     * @return The detection.
+     */
+    public Detection locate(Mat origImg, int totalClusters, Mat colors,
+                            int clusterIterations, double clusterEpsilon,
+                            int clusterAttempts) {
+        Frame frame = new Frame(origImg);
+        try {
+            return locate(frame, totalClusters, colors, clusterIterations,
+                          clusterEpsilon, clusterAttempts);
+        } finally {
+            frame.release();
         }
-        Mat labels = new Mat();  // Best cluster for each color.
-        Mat centers = new Mat(colors.size(), CvType.CV_32F);  // Center of each cluster.
-        Core.kmeans(colorSeq, totalClusters, labels,
-                    new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER,
-                                     clusterIterations, clusterEpsilon),
-                    clusterAttempts, Core.KMEANS_RANDOM_CENTERS, centers);
+    }
 
-        // Find clusters closest to provided colors.
-        int[] closestCluster = new int[colors.height()];
-        for (int i = 0; i < closestCluster.length; i++) {
-            Mat color = colors.submat(i, i + 1, 0, 3);
-            double closestDist = Double.MAX_VALUE;
-            for (int j = 0; j < centers.size().height; j++) {
-                Mat center = centers.submat(j, j + 1, 0, 3);
-                Mat diff = new Mat(1, 3, CvType.CV_32F);
-                Core.subtract(center, color, diff);
-                double dist = Core.norm(diff);
+    /**
+     * Detects a beacon in a frame, sharing the frame's resized and converted
+     * views with other consumers.
+     * @param frame The frame to detect the beacon inside. Must have color.
+     * @param totalClusters The total clusters of colors to find.
+     * @param colors Colors (Nx3 RGB) to search for.
+     * @param clusterIterations Number of iterations when performing kmeans clustering.
+     * @param clusterEpsilon Epsilon where clustering can be terminated.
+     * @param clusterAttempts Number of attempts (e.g. random initialization) to cluster.
+     * @return The detection.
+     * @throws IllegalArgumentException If there are more than 127 clusters.
+     */
+    public Detection locate(Frame frame, int totalClusters, Mat colors,
+                            int clusterIterations, double clusterEpsilon,
+                            int clusterAttempts) {
+        if (!frame.hasColor()) {
+            throw new IllegalArgumentException("Frame must have color.");
+        }
+        kmeansStage.configure(totalClusters, colors, clusterIterations,
+                              clusterEpsilon, clusterAttempts);
+        return clusterPipeline.run(frame);
+    }
+
+    /**
+     * Detects a beacon using a precomputed color lookup table.
+     * Skips clustering and float conversion, classifying each pixel of the
+     * raw image with one table lookup.
+     * @param origImg The image (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @param table The lookup table trained for the colors of interest.
+     * @return Color centers (Nx2).
+     */
+    public Mat detect(Mat origImg, ColorLookupTable table) {
+        return locate(origImg, table).positions;
+    }
+
+    /**
+     * Detects a beacon using a precomputed color lookup table, returning the
+     * positions along with detection stats.
+     * @param origImg The image (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @param table The lookup table trained for the colors of interest.
+     * @return The detection.
+     */
+    public Detection locate(Mat origImg, ColorLookupTable table) {
+        Frame frame = new Frame(origImg);
+        try {
+            return locate(frame, table);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Detects a beacon in a frame using a precomputed color lookup table,
+     * sharing the frame's resized view with other consumers.
+     * @param frame The frame (CV_8UC3) to detect the beacon inside. Must have
+     *   color.
+     * @param table The lookup table trained for the colors of interest.
+     * @return The detection.
+     */
+    public Detection locate(Frame frame, ColorLookupTable table) {
+        if (!frame.hasColor()) {
+            throw new IllegalArgumentException("Frame must have color.");
+        }
+        if (frame.getImage().type() != CvType.CV_8UC3) {
+            throw new IllegalArgumentException("Image must be CV_8UC3.");
+        }
+        classifyStage.table = table;
+        return lookupPipeline.run(frame);
+    }
+
+    /**
+     * Gets the pipeline used by locate(Frame), for its stage timings.
+     * @return The lookup table pipeline if a table is set, else the
+     *   clustering pipeline.
+     */
+    public Pipeline<Frame, Detection> getPipeline() {
+        return table != null ? lookupPipeline : clusterPipeline;
+    }
+
+    /**
+     * Gets the clustering pipeline: resize, features, kmeans, localize.
+     */
+    public Pipeline<Frame, Detection> getClusterPipeline() {
+        return clusterPipeline;
+    }
+
+    /**
+     * Gets the lookup table pipeline: resize, classify, localize.
+     */
+    public Pipeline<Frame, Detection> getLookupPipeline() {
+        return lookupPipeline;
+    }
+
+    /**
+     * Builds the kmeans samples of an image.
+     * The image is viewed as one row per pixel and converted in a single
+     * native pass, with no copy at all if it is already float.
+     * @param img The image (CV_8UC3 or CV_32FC3).
+     * @return The pixel colors as rows (Nx3 CV_32F), in row-major order.
+     */
+    public static Mat buildFeatures(Mat img) {
+        return buildFeatures(img, new Mat());
+    }
+
+    /**
+     * Builds the kmeans samples of an image into a reused buffer.
+     * @param img The image (CV_8UC3 or CV_32FC3).
+     * @param colorSeq Buffer for the samples, unused if the image is float.
+     * @return The pixel colors as rows (Nx3 CV_32F), in row-major order.
+     */
+    public static Mat buildFeatures(Mat img, Mat colorSeq) {
+        if (!img.isContinuous()) {
+            img = img.clone();
+        }
+        Mat pixelRows = img.reshape(1, img.width() * img.height());
+        if (pixelRows.depth() == CvType.CV_32F) {
+            return pixelRows;
+        }
+        pixelRows.convertTo(colorSeq, CvType.CV_32F);
+        return colorSeq;
+    }
+
+    /**
+     * Finds the cluster closest to each color of interest.
+     * @param centers Center of each cluster (Kx3 CV_32F).
+     * @param colors Colors (Nx3) of interest.
+     * @return The cluster of each color of interest.
+     */
+    public static int[] findClosestClusters(Mat centers, Mat colors) {
+        return findClosestClusters(toIntRows(centers), toIntRows(colors));
+    }
+
+    /**
+     * Finds the cluster closest to each color of interest.
+     * @param centers Center of each cluster (Kx3), rounded to integers.
+     * @param colors Colors (Nx3) of interest, rounded to integers.
+     * @return The cluster of each color of interest.
+     */
+    public static int[] findClosestClusters(int[][] centers, int[][] colors) {
+        int[] closestCluster = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            int closestDist = Integer.MAX_VALUE;
+            for (int j = 0; j < centers.length; j++) {
+                int d0 = centers[j][0] - colors[i][0];
+                int d1 = centers[j][1] - colors[i][1];
+                int d2 = centers[j][2] - colors[i][2];
+                int dist = d0 * d0 + d1 * d1 + d2 * d2;
                 if (dist < closestDist) {
                     closestDist = dist;
                     closestCluster[i] = j;
                 }
             }
         }
+        return closestCluster;
+    }
 
-        // Find middle (median on each axis) along clusters of interest.
-        // Unclear how to do in O(N) in Java, use O(NlogN).
-        Mat colorPositions = Mat.zeros(colors.height(), 2, CvType.CV_64F);
-        Mat rendered = Mat.zeros(img.size(), CvType.CV_8UC3);
+    /**
+     * Gets the cluster labels as bytes.
+     * @param labels Cluster of each pixel (N x 1 CV_32S), at most 127 clusters.
+     * @param numPixels The number of pixels.
+     * @return Cluster of each pixel (CV_8U layout), in row-major order.
+     */
+    public static byte[] toClusterLabels(Mat labels, int numPixels) {
+        int[] allLabels = new int[numPixels];
+        labels.get(0, 0, allLabels);
+        byte[] clusterLabels = new byte[numPixels];
+        for (int p = 0; p < numPixels; p++) {
+            clusterLabels[p] = (byte)allLabels[p];
+        }
+        return clusterLabels;
+    }
+
+    /**
+     * Finds the middle (median on each axis) of the clusters of interest.
+     * Histograms the positions of every cluster in one O(N) pass.
+     * @param labels Cluster of each pixel (CV_8U layout), in row-major order.
+     * @param numClusters The number of clusters.
+     * @param closestCluster The cluster of each color of interest.
+     * @param width The image width.
+     * @param height The image height.
+     * @param colorPositions Output color centers (Nx2 CV_64F), normalized.
+     *   Colors without pixels are left unchanged.
+     * @return The number of pixels of each color.
+     */
+    public static int[] findClusterMedians(byte[] labels, int numClusters,
+                                           int[] closestCluster,
+                                           int width, int height,
+                                           Mat colorPositions) {
+        LabelHistogram histogram = new LabelHistogram(numClusters, width, height);
+        histogram.add(labels, 0, 0, height);
+        return findClusterMedians(histogram, closestCluster, width, height,
+                                  colorPositions);
+    }
+
+    /**
+     * Finds the middle (median on each axis) of the clusters of interest
+     * from their position histogram.
+     * @param histogram The histogram of every cluster's positions.
+     * @param closestCluster The cluster of each color of interest.
+     * @param width The image width.
+     * @param height The image height.
+     * @param colorPositions Output color centers (Nx2 CV_64F), normalized.
+     *   Colors without pixels are left unchanged.
+     * @return The number of pixels of each color.
+     */
+    public static int[] findClusterMedians(LabelHistogram histogram,
+                                           int[] closestCluster,
+                                           int width, int height,
+                                           Mat colorPositions) {
+        int[] pixelCounts = new int[closestCluster.length];
         for (int i = 0; i < closestCluster.length; i++) {
-            Mat center = centers.submat(closestCluster[i], closestCluster[i] + 1, 0, 3);
-            byte[] color = new byte[3];
-            color[0] = (byte)center.get(0, 0)[0];
-            color[1] = (byte)center.get(0, 1)[0];
-            color[2] = (byte)center.get(0, 2)[0];
-            ArrayList<Integer> xPos = new ArrayList<Integer>();
-            ArrayList<Integer> yPos = new ArrayList<Integer>();
-            for (int y = 0; y < img.height(); y++) {
-                for (int x = 0; x < img.width(); x++) {
-                    int index = y * img.width() + x;
-                    int[] label = new int[1];
-                    labels.get(index, 0, label);
-                    if (label[0] == closestCluster[i]) {
-                        rendered.put(y, x, color);
-                        xPos.add(x);
-                        yPos.add(y);
-                    }
+            int cluster = closestCluster[i];
+            pixelCounts[i] = histogram.count(cluster);
+            if (pixelCounts[i] == 0) {
+                continue;
+            }
+            double[] x = {histogram.medianX(cluster) / (float)width};
+            double[] y = {histogram.medianY(cluster) / (float)height};
+            colorPositions.put(i, 0, x);
+            colorPositions.put(i, 1, y);
+        }
+        return pixelCounts;
+    }
+
+    /**
+     * Gets the render color of each color of interest, its cluster center.
+     * @param centers Center of each cluster (Kx3 CV_32F).
+     * @param closestCluster The cluster of each color of interest.
+     * @return The render colors (3 bytes each).
+     */
+    public static byte[][] toRenderColors(Mat centers, int[] closestCluster) {
+        int[][] centerValues = toIntRows(centers);
+        byte[][] renderColors = new byte[closestCluster.length][];
+        for (int i = 0; i < closestCluster.length; i++) {
+            int[] center = centerValues[closestCluster[i]];
+            renderColors[i] = new byte[] {(byte)center[0], (byte)center[1],
+                                          (byte)center[2]};
+        }
+        return renderColors;
+    }
+
+    /**
+     * Renders the clusters of interest in their render color, with the
+     * position of each marked.
+     * @param labels Cluster of each pixel (CV_8U layout), in row-major order.
+     * @param closestCluster The cluster of each color of interest.
+     * @param renderColors The render color of each color of interest.
+     * @param colorPositions Color centers (Nx2 CV_64F), normalized.
+     * @param pixelCounts The number of pixels of each color, whose position
+     *   is only marked if it has pixels.
+     * @param width The image width.
+     * @param height The image height.
+     * @return The rendered pixels (CV_8UC3 layout).
+     */
+    public static byte[] renderClusters(byte[] labels, int[] closestCluster,
+                                        byte[][] renderColors, Mat colorPositions,
+                                        int[] pixelCounts, int width, int height) {
+        byte[] rendered = new byte[width * height * 3];
+        for (int p = 0; p < labels.length; p++) {
+            for (int i = 0; i < closestCluster.length; i++) {
+                if (labels[p] == closestCluster[i]) {
+                    System.arraycopy(renderColors[i], 0, rendered, 3 * p, 3);
+                    break;
                 }
             }
-            if (xPos.size() == 0) {
+        }
+        for (int i = 0; i < closestCluster.length; i++) {
+            if (pixelCounts[i] == 0) {
                 continue;
             }
-            Collections.sort(xPos);
-            Collections.sort(yPos);
-
             // Color the center.
-            byte[] mcolor = {color[0], (byte)255, color[2]};
-            rendered.put(yPos.get(yPos.size()/2), xPos.get(xPos.size()/2), mcolor);
+            int x = Math.min(width - 1, (int)Math.round(colorPositions.get(i, 0)[0] * width));
+            int y = Math.min(height - 1, (int)Math.round(colorPositions.get(i, 1)[0] * height));
+            rendered[3 * (y * width + x) + 1] = (byte)255;
+        }
+        return rendered;
+    }
 
-            double[] x = {xPos.get(xPos.size()/2) / (float)img.width()};
-            double[] y = {yPos.get(yPos.size()/2) / (float)img.height()};
-            colorPositions.put(i, 0, x);
-            colorPositions.put(i, 1, y);
+    /**
+     * Checks the clusters fit the byte labels, which are negative (e.g.
+     * ColorLookupTable.BACKGROUND) past Byte.MAX_VALUE.
+     * @param totalClusters The total clusters of colors to find.
+     */
+    private static void checkTotalClusters(int totalClusters) {
+        if (totalClusters > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "Total clusters must be at most " + Byte.MAX_VALUE + ".");
+        }
+    }
+
+    /**
+     * Pulls the rows of a 3 column matrix out at once, rounded to integers.
+     * @param mat The matrix (Nx3, any depth).
+     * @return The rows.
+     */
+    private static int[][] toIntRows(Mat mat) {
+        Mat converted = new Mat();
+        mat.convertTo(converted, CvType.CV_32S);
+        int[] values = new int[converted.rows() * 3];
+        converted.get(0, 0, values);
+        int[][] rows = new int[converted.rows()][3];
+        for (int r = 0; r < rows.length; r++) {
+            System.arraycopy(values, 3 * r, rows[r], 0, 3);
+        }
+        return rows;
+    }
+
+    /**
+     * Resizes the frame to trade accuracy for speed.
+     */
+    private class ResizeStage extends Stage<Frame, Mat> {
+        ResizeStage() {
+            super("resize");
+        }
+
+        @Override
+        public Mat process(Frame frame) {
+            Mat img = frame.getDownscaled(downscale);
+            if (!img.isContinuous()) {
+                img = img.clone();
+            }
+            return img;
+        }
+    }
+
+    /**
+     * Converts the image to kmeans samples, keeping the image shape.
+     */
+    private class FeaturesStage extends Stage<Mat, Mat> {
+        FeaturesStage() {
+            super("features");
+            colorSeq = new Mat();
         }
-        rendered.copyTo(origImg);
 
-        return colorPositions;
+        @Override
+        public Mat process(Mat img) {
+            return buildFeatures(img, colorSeq).reshape(3, img.rows());
+        }
+
+        // Reused sample buffer.
+        private Mat colorSeq;
     }
+
+    /**
+     * Clusters pixel colors into K clusters, labeling each pixel with its
+     * cluster and each color of interest with its closest cluster.
+     */
+    private class KmeansStage extends Stage<Mat, LabeledImage> {
+        KmeansStage() {
+            super("kmeans");
+            labels = new Mat();
+            centers = new Mat();
+        }
+
+        /**
+         * Sets the clustering parameters for the next runs.
+         */
+        void configure(int totalClusters, Mat colors, int clusterIterations,
+                       double clusterEpsilon, int clusterAttempts) {
+            checkTotalClusters(totalClusters);
+            this.totalClusters = totalClusters;
+            this.colors = colors;
+            this.clusterIterations = clusterIterations;
+            this.clusterEpsilon = clusterEpsilon;
+            this.clusterAttempts = clusterAttempts;
+        }
+
+        @Override
+        public LabeledImage process(Mat features) {
+            // The features are already the float samples, in image shape.
+            int width = features.width();
+            int height = features.height();
+            Core.kmeans(features.reshape(1, width * height), totalClusters, labels,
+                        new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER,
+                                         clusterIterations, clusterEpsilon),
+                        clusterAttempts, Core.KMEANS_RANDOM_CENTERS, centers);
+
+            // Find clusters closest to provided colors.
+            int[] closestCluster = findClosestClusters(centers, colors);
+
+            // Pull the labels out once as bytes, the rest of the path is integer.
+            return new LabeledImage(toClusterLabels(labels, width * height),
+                                    totalClusters, closestCluster,
+                                    toRenderColors(centers, closestCluster),
+                                    width, height, null);
+        }
+
+        // Clustering parameters.
+        private int totalClusters;
+        private Mat colors;
+        private int clusterIterations;
+        private double clusterEpsilon;
+        private int clusterAttempts;
+        // Reused kmeans outputs.
+        private Mat labels;
+        private Mat centers;
+    }
+
+    /**
+     * Classifies every pixel with the lookup table, histogramming the
+     * positions as it goes.
+     */
+    private class ClassifyStage extends Stage<Mat, LabeledImage> {
+        ClassifyStage() {
+            super("classify");
+            pixels = new byte[0];
+            labels = new byte[0];
+        }
+
+        @Override
+        public LabeledImage process(Mat img) {
+            int width = img.width();
+            int height = img.height();
+            if (labels.length != width * height) {
+                pixels = new byte[width * height * 3];
+                labels = new byte[width * height];
+            }
+            img.get(0, 0, pixels);
+            LabelHistogram histogram = tileClassifier.classify(table, pixels, labels,
+                                                               width, height);
+            int numColors = table.getNumColors();
+            int[] colorLabels = new int[numColors];
+            byte[][] renderColors = new byte[numColors][];
+            for (int i = 0; i < numColors; i++) {
+                colorLabels[i] = i;
+                renderColors[i] = table.getRenderColor(i);
+            }
+            return new LabeledImage(labels, numColors, colorLabels, renderColors,
+                                    width, height, histogram);
+        }
+
+        // The lookup table to classify with.
+        private ColorLookupTable table;
+        // Reused pixel and label buffers.
+        private byte[] pixels;
+        private byte[] labels;
+    }
+
+    /**
+     * Finds the middle (median on each axis) of each color of interest, or
+     * its largest plausible blob, and renders if a sink is attached.
+     */
+    private class LocalizeStage extends Stage<LabeledImage, Detection> {
+        LocalizeStage() {
+            super("localize");
+        }
+
+        @Override
+        public Detection process(LabeledImage img) {
+            int numColors = img.colorLabels.length;
+            Mat colorPositions = Mat.zeros(numColors, 2, CvType.CV_64F);
+            int[] pixelCounts;
+            if (blobLocalizer != null) {
+                pixelCounts = new int[numColors];
+                double[] position = new double[2];
+                for (int i = 0; i < numColors; i++) {
+                    if (!blobLocalizer.localize(img.labels, img.colorLabels[i],
+                                                img.width, img.height, position)) {
+                        continue;
+                    }
+                    pixelCounts[i] = blobLocalizer.getLastArea();
+                    colorPositions.put(i, 0, position);
+                }
+            } else if (img.histogram != null) {
+                // Classified in tiles, already histogrammed.
+                pixelCounts = findClusterMedians(img.histogram, img.colorLabels,
+                                                 img.width, img.height,
+                                                 colorPositions);
+            } else {
+                pixelCounts = findClusterMedians(img.labels, img.numLabels,
+                                                 img.colorLabels, img.width,
+                                                 img.height, colorPositions);
+            }
+
+            if (debugSink != null) {
+                render(renderClusters(img.labels, img.colorLabels, img.renderColors,
+                                      colorPositions, pixelCounts,
+                                      img.width, img.height),
+                       img.width, img.height);
+            }
+            return new Detection(colorPositions, pixelCounts, img.width, img.height,
+                                 downscale);
+        }
+    }
+
+    /**
+     * Sends a rendered image to the debug sink, if attached.
+     * @param rendered The rendered pixels (CV_8UC3 layout), null if not rendered.
+     * @param width The image width.
+     * @param height The image height.
+     */
+    private void render(byte[] rendered, int width, int height) {
+        if (debugSink == null || rendered == null) {
+            return;
+        }
+        Mat renderedImg = new Mat(height, width, CvType.CV_8UC3);
+        renderedImg.put(0, 0, rendered);
+        debugSink.render(renderedImg);
+        renderedImg.release();
+    }
+
+    // The total clusters of colors to find with locate(Mat).
+    private int totalClusters;
+    // Colors (Nx3) to search for with locate(Mat).
+    private Mat colors;
+    // Lookup table used by locate(Mat), null to cluster.
+    private ColorLookupTable table;
+    // Factor images are shrunk by before detection.
+    private int downscale;
+    // Localizes colors by blob, null to use the median.
+    private BlobLocalizer blobLocalizer;
+    // Receives the rendered image, null to skip rendering.
+    private DebugSink debugSink;
+    // Classifies lookup table images, possibly in parallel.
+    private TileClassifier tileClassifier;
+    // Stages given per-call parameters.
+    private KmeansStage kmeansStage;
+    private ClassifyStage classifyStage;
+    // Detection by clustering.
+    private Pipeline<Frame, Detection> clusterPipeline;
+    // Detection by lookup table.
+    private Pipeline<Frame, Detection> lookupPipeline;
 }
@@ -0,0 +1,17 @@
+package com.github.pmtischler.vision;
+
+/**
+ * Strategy for locating the beacon colors in an image.
+ * Implementations return the same Nx2 positions, along with a confidence so
+ * cheap strategies can fall back to expensive ones only when needed.
+ */
+public interface BeaconLocator {
+    /**
+     * Locates the colors of interest.
+     * Views of the frame (e.g. downscaled) are shared with other locators
+     * given the same frame, so preprocessing is done once per frame.
+     * @param frame The frame (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @return The detection.
+     */
+    public Detection locate(Frame frame);
+}
@@ -0,0 +1,327 @@
+package com.github.pmtischler.vision;
+
+/**
+ * Kalman filtered beacon tracker.
+ * Fuses detections over time with a constant velocity model per color, so
+ * positions can be predicted between frames and a new frame is only needed
+ * once the prediction becomes too uncertain.
+ * Each color's x and y are filtered independently, with state (position,
+ * velocity) in normalized image coordinates per second.
+ * https://en.wikipedia.org/wiki/Kalman_filter
+ */
+public class BeaconTracker {
+    /**
+     * Creates a tracker.
+     * @param numColors The number of colors of interest.
+     * @param processNoise Acceleration noise ((normalized/s^2)^2 per second).
+     * @param measurementNoise Detection position variance (normalized^2).
+     */
+    public BeaconTracker(int numColors, double processNoise,
+                         double measurementNoise) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        x = new Axis[numColors];
+        y = new Axis[numColors];
+        for (int i = 0; i < numColors; i++) {
+            x[i] = new Axis();
+            y[i] = new Axis();
+        }
+
+        // Parameters selected for problem.
+        initialVelocityVariance = 0.25;
+        maxUncertainty = 0.05;
+        reset();
+    }
+
+    /**
+     * Sets the uncertainty at which a new frame is needed.
+     * @param maxUncertainty Largest position std dev (normalized).
+     */
+    public void setMaxUncertainty(double maxUncertainty) {
+        this.maxUncertainty = maxUncertainty;
+    }
+
+    /**
+     * Forgets every color.
+     */
+    public void reset() {
+        for (int i = 0; i < x.length; i++) {
+            x[i].initialized = false;
+            y[i].initialized = false;
+        }
+        time = Double.NaN;
+    }
+
+    /**
+     * Whether every color has been measured since the last reset.
+     */
+    public boolean isInitialized() {
+        for (int i = 0; i < x.length; i++) {
+            if (!x[i].initialized) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Predicts the colors forward to a time.
+     * @param time The time (sec), not before the last predict or update.
+     */
+    public void predict(double time) {
+        if (!Double.isNaN(this.time)) {
+            double dt = getStep(time);
+            for (int i = 0; i < x.length; i++) {
+                x[i].predict(dt, processNoise);
+                y[i].predict(dt, processNoise);
+            }
+        }
+        this.time = time;
+    }
+
+    /**
+     * Fuses a detection, predicting forward to its time first.
+     * Colors which were not found in the detection are only predicted.
+     * @param detection The detection.
+     * @param time The time (sec) the image was taken.
+     */
+    public void update(Detection detection, double time) {
+        predict(time);
+        for (int i = 0; i < x.length; i++) {
+            if (detection.pixelCounts[i] == 0) {
+                continue;
+            }
+            correct(i, detection.positions.get(i, 0)[0],
+                    detection.positions.get(i, 1)[0]);
+        }
+    }
+
+    /**
+     * Fuses a measured color position, predicting forward to its time first.
+     * @param color The color index.
+     * @param posX The measured x (normalized).
+     * @param posY The measured y (normalized).
+     * @param time The time (sec) the image was taken.
+     */
+    public void update(int color, double posX, double posY, double time) {
+        predict(time);
+        correct(color, posX, posY);
+    }
+
+    /**
+     * Gets the time the filter state is at.
+     * @return The time (sec) of the last predict or update, NaN if none.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the predicted position of a color at a time, leaving the filter
+     * at its last predict or update. This lets detections which arrive late
+     * still be fused at the time their image was taken.
+     * @param color The color index.
+     * @param time The time (sec), not before the last predict or update.
+     * @return The position (normalized x, y).
+     */
+    public double[] predictPosition(int color, double time) {
+        double dt = getStep(time);
+        return new double[] {x[color].position + x[color].velocity * dt,
+                             y[color].position + y[color].velocity * dt};
+    }
+
+    /**
+     * Gets the filtered position of a color.
+     * @param color The color index.
+     * @return The position (normalized x, y) at the last predict or update.
+     */
+    public double[] getPosition(int color) {
+        return new double[] {x[color].position, y[color].position};
+    }
+
+    /**
+     * Gets the filtered velocity of a color.
+     * @param color The color index.
+     * @return The velocity (normalized x, y per second).
+     */
+    public double[] getVelocity(int color) {
+        return new double[] {x[color].velocity, y[color].velocity};
+    }
+
+    /**
+     * Gets the position covariance of a color.
+     * The axes are filtered independently, so the cross terms are zero.
+     * @param color The color index.
+     * @return The variance of x and y (normalized^2).
+     */
+    public double[] getCovariance(int color) {
+        return new double[] {x[color].p00, y[color].p00};
+    }
+
+    /**
+     * Gets the largest position std dev across colors and axes.
+     * @return The std dev (normalized), infinite if not initialized.
+     */
+    public double getUncertainty() {
+        if (!isInitialized()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double variance = 0;
+        for (int i = 0; i < x.length; i++) {
+            variance = Math.max(variance, Math.max(x[i].p00, y[i].p00));
+        }
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * Gets the largest predicted position std dev across colors and axes at
+     * a time, leaving the filter at its last predict or update.
+     * @param time The time (sec), not before the last predict or update.
+     * @return The std dev (normalized), infinite if not initialized.
+     */
+    public double getUncertainty(double time) {
+        if (!isInitialized()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double dt = getStep(time);
+        double variance = 0;
+        for (int i = 0; i < x.length; i++) {
+            variance = Math.max(variance, Math.max(
+                    x[i].predictedVariance(dt, processNoise),
+                    y[i].predictedVariance(dt, processNoise)));
+        }
+        return Math.sqrt(variance);
+    }
+
+    /**
+     * Whether a new frame is needed, as the prediction is too uncertain.
+     * Call after predicting to the current time.
+     */
+    public boolean needsMeasurement() {
+        return getUncertainty() > maxUncertainty;
+    }
+
+    /**
+     * Whether a new frame is needed, as the prediction to a time is too
+     * uncertain. Leaves the filter at its last predict or update.
+     * @param time The time (sec), not before the last predict or update.
+     */
+    public boolean needsMeasurement(double time) {
+        return getUncertainty(time) > maxUncertainty;
+    }
+
+    /**
+     * Gets the time step from the last predict or update to a time.
+     */
+    private double getStep(double time) {
+        if (Double.isNaN(this.time)) {
+            return 0;
+        }
+        double dt = time - this.time;
+        if (dt < 0) {
+            throw new IllegalArgumentException("Time must not go backward.");
+        }
+        return dt;
+    }
+
+    /**
+     * Corrects a color with a measurement at the current time.
+     */
+    private void correct(int color, double posX, double posY) {
+        x[color].correct(posX, measurementNoise, initialVelocityVariance);
+        y[color].correct(posY, measurementNoise, initialVelocityVariance);
+    }
+
+    /**
+     * Kalman filter of one axis, with state (position, velocity).
+     */
+    private static class Axis {
+        /**
+         * Predicts the state forward.
+         * @param dt The time step (sec).
+         * @param q The acceleration noise.
+         */
+        void predict(double dt, double q) {
+            if (!initialized) {
+                return;
+            }
+            // x = F x, with F = [1 dt; 0 1].
+            position += velocity * dt;
+            // P = F P F' + Q, Q from white noise acceleration.
+            double dt2 = dt * dt;
+            double n00 = predictedVariance(dt, q);
+            double n01 = p01 + dt * p11 + q * dt2 / 2;
+            double n11 = p11 + q * dt;
+            p00 = n00;
+            p01 = n01;
+            p11 = n11;
+        }
+
+        /**
+         * Gets the position variance predicted forward, without changing
+         * the state.
+         * @param dt The time step (sec).
+         * @param q The acceleration noise.
+         */
+        double predictedVariance(double dt, double q) {
+            double dt2 = dt * dt;
+            return p00 + 2 * dt * p01 + dt2 * p11 + q * dt2 * dt / 3;
+        }
+
+        /**
+         * Corrects the state with a position measurement.
+         * @param z The measured position.
+         * @param r The measurement variance.
+         * @param initialVelocityVariance Velocity variance if not initialized.
+         */
+        void correct(double z, double r, double initialVelocityVariance) {
+            if (!initialized) {
+                position = z;
+                velocity = 0;
+                p00 = r;
+                p01 = 0;
+                p11 = initialVelocityVariance;
+                initialized = true;
+                return;
+            }
+            // Measurement matrix H = [1 0].
+            double s = p00 + r;
+            double k0 = p00 / s;
+            double k1 = p01 / s;
+            double innovation = z - position;
+            position += k0 * innovation;
+            velocity += k1 * innovation;
+            // P = (I - K H) P.
+            double n00 = (1 - k0) * p00;
+            double n01 = (1 - k0) * p01;
+            double n11 = p11 - k1 * p01;
+            p00 = n00;
+            p01 = n01;
+            p11 = n11;
+        }
+
+        // Whether the axis has been measured.
+        boolean initialized;
+        // The state.
+        double position;
+        double velocity;
+        // The symmetric state covariance.
+        double p00;
+        double p01;
+        double p11;
+    }
+
+    // Acceleration noise.
+    private double processNoise;
+    // Detection position variance.
+    private double measurementNoise;
+    // Velocity variance of a newly measured color.
+    private double initialVelocityVariance;
+    // Position std dev at which a new frame is needed.
+    private double maxUncertainty;
+    // The filter of each color's x and y.
+    private Axis[] x;
+    private Axis[] y;
+    // Time of the last predict or update (sec), NaN if none.
+    private double time;
+}
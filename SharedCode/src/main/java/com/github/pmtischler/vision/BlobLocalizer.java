@@ -0,0 +1,136 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Localizes a color by its largest plausible blob.
+ * Unlike the median of every pixel of a color, stray pixels of the color in
+ * the background do not pull the position, so the image does not need to be
+ * a tightly cropped picture of the beacon.
+ * Procedure:
+ *   + Find connected components of the color mask.
+ *   + Discard components too small or with an implausible aspect ratio.
+ *   + Use the centroid of the largest remaining component.
+ * Buffers are reused across frames.
+ */
+public class BlobLocalizer {
+    /**
+     * Creates a blob localizer.
+     */
+    public BlobLocalizer() {
+        // Parameters selected for problem.
+        minAreaFraction = 0.002;
+        minAspect = 0.2;
+        maxAspect = 5;
+
+        mask = new Mat();
+        components = new Mat();
+        stats = new Mat();
+        centroids = new Mat();
+        maskData = new byte[0];
+        lastArea = 0;
+    }
+
+    /**
+     * Sets which blobs are plausible.
+     * @param minAreaFraction Smallest blob area, as a fraction of the image.
+     * @param minAspect Smallest blob width / height.
+     * @param maxAspect Largest blob width / height.
+     */
+    public void setLimits(double minAreaFraction, double minAspect,
+                          double maxAspect) {
+        this.minAreaFraction = minAreaFraction;
+        this.minAspect = minAspect;
+        this.maxAspect = maxAspect;
+    }
+
+    /**
+     * Localizes a color in a labeled image.
+     * @param labels The labels in row-major order.
+     * @param color The label of the color.
+     * @param width The image width.
+     * @param height The image height.
+     * @param position Output position (normalized x, y), unchanged if not found.
+     * @return Whether a plausible blob was found.
+     */
+    public boolean localize(byte[] labels, int color, int width, int height,
+                            double[] position) {
+        if (maskData.length != labels.length) {
+            maskData = new byte[labels.length];
+        }
+        for (int p = 0; p < labels.length; p++) {
+            maskData[p] = labels[p] == color ? (byte)255 : 0;
+        }
+        mask.create(height, width, CvType.CV_8UC1);
+        mask.put(0, 0, maskData);
+        return localize(mask, position);
+    }
+
+    /**
+     * Localizes a color mask.
+     * @param colorMask The mask (CV_8UC1), non-zero for pixels of the color.
+     * @param position Output position (normalized x, y), unchanged if not found.
+     * @return Whether a plausible blob was found.
+     */
+    public boolean localize(Mat colorMask, double[] position) {
+        int width = colorMask.width();
+        int height = colorMask.height();
+        int numComponents = Imgproc.connectedComponentsWithStats(
+                colorMask, components, stats, centroids, 8, CvType.CV_32S);
+
+        // Component 0 is the background.
+        double minArea = minAreaFraction * width * height;
+        int best = -1;
+        int bestArea = 0;
+        int[] stat = new int[Imgproc.CC_STAT_MAX];
+        for (int c = 1; c < numComponents; c++) {
+            stats.get(c, 0, stat);
+            int area = stat[Imgproc.CC_STAT_AREA];
+            double aspect = stat[Imgproc.CC_STAT_WIDTH] /
+                            (double)stat[Imgproc.CC_STAT_HEIGHT];
+            if (area < minArea || aspect < minAspect || aspect > maxAspect) {
+                continue;
+            }
+            if (area > bestArea) {
+                best = c;
+                bestArea = area;
+            }
+        }
+
+        lastArea = bestArea;
+        if (best < 0) {
+            return false;
+        }
+        double[] centroid = new double[2];
+        centroids.get(best, 0, centroid);
+        position[0] = centroid[0] / width;
+        position[1] = centroid[1] / height;
+        return true;
+    }
+
+    /**
+     * Gets the area of the blob found by the last localize.
+     * @return The area (pixels), 0 if none was found.
+     */
+    public int getLastArea() {
+        return lastArea;
+    }
+
+    // Smallest blob area, as a fraction of the image.
+    private double minAreaFraction;
+    // Smallest blob width / height.
+    private double minAspect;
+    // Largest blob width / height.
+    private double maxAspect;
+
+    // Reused buffers.
+    private Mat mask;
+    private Mat components;
+    private Mat stats;
+    private Mat centroids;
+    private byte[] maskData;
+    // Area of the blob found by the last localize.
+    private int lastArea;
+}
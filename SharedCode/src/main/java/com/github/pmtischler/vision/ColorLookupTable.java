@@ -0,0 +1,272 @@
+package com.github.pmtischler.vision;
+
+import java.util.List;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Quantized color lookup table.
+ * Maps every quantized color (32 levels per channel) to the index of a color
+ * of interest, or to background. Built once from calibration images, after
+ * which classifying a pixel is a single table lookup.
+ * Procedure:
+ *   + Cluster calibration pixel colors into K clusters (as BeaconDetector).
+ *   + Label the clusters closest to each color of interest with its index.
+ *   + Label every table entry with the label of its nearest cluster.
+ */
+public class ColorLookupTable {
+    // Label of colors which are not of interest.
+    public static final byte BACKGROUND = -1;
+    // Bits kept per channel when quantizing.
+    public static final int BITS = 5;
+    // Quantization levels per channel.
+    public static final int LEVELS = 1 << BITS;
+
+    /**
+     * Creates a lookup table from cluster centers.
+     * @param centers Cluster centers (Kx3, same channel order as images).
+     * @param centerLabels Color index of each cluster, or BACKGROUND.
+     * @param numColors The number of colors of interest.
+     */
+    public ColorLookupTable(float[][] centers, int[] centerLabels, int numColors) {
+        this.numColors = numColors;
+        table = new byte[LEVELS * LEVELS * LEVELS];
+        int shift = 8 - BITS;
+        float half = (1 << shift) / 2.0f;
+        for (int c0 = 0; c0 < LEVELS; c0++) {
+            for (int c1 = 0; c1 < LEVELS; c1++) {
+                for (int c2 = 0; c2 < LEVELS; c2++) {
+                    // Use the middle of the quantization cell.
+                    float v0 = (c0 << shift) + half;
+                    float v1 = (c1 << shift) + half;
+                    float v2 = (c2 << shift) + half;
+                    float closestDist = Float.MAX_VALUE;
+                    int closest = 0;
+                    for (int j = 0; j < centers.length; j++) {
+                        float d0 = centers[j][0] - v0;
+                        float d1 = centers[j][1] - v1;
+                        float d2 = centers[j][2] - v2;
+                        float dist = d0 * d0 + d1 * d1 + d2 * d2;
+                        if (dist < closestDist) {
+                            closestDist = dist;
+                            closest = j;
+                        }
+                    }
+                    table[index(c0, c1, c2)] = (byte)centerLabels[closest];
+                }
+            }
+        }
+
+        // Remember the cluster colors for rendering.
+        renderColors = new byte[numColors][3];
+        for (int j = 0; j < centers.length; j++) {
+            if (centerLabels[j] >= 0 && centerLabels[j] < numColors) {
+                for (int c = 0; c < 3; c++) {
+                    renderColors[centerLabels[j]][c] = (byte)centers[j][c];
+                }
+            }
+        }
+    }
+
+    /**
+     * Trains a lookup table from calibration images.
+     * @param images Calibration images (CV_8UC3) containing the beacon.
+     * @param downscale Factor to shrink images by before clustering.
+     * @param totalClusters The total clusters of colors to find.
+     * @param colors Colors (Nx3 RGB) to search for.
+     * @param clusterIterations Number of iterations when performing kmeans clustering.
+     * @param clusterEpsilon Epsilon where clustering can be terminated.
+     * @param clusterAttempts Number of attempts (e.g. random initialization) to cluster.
+     * @return The trained lookup table.
+     * @throws IllegalArgumentException If there are more colors than clusters.
+     */
+    public static ColorLookupTable train(List<Mat> images, int downscale,
+                                         int totalClusters, Mat colors,
+                                         int clusterIterations,
+                                         double clusterEpsilon,
+                                         int clusterAttempts) {
+        float[][] centers = clusterColors(images, downscale, totalClusters,
+                                          clusterIterations, clusterEpsilon,
+                                          clusterAttempts);
+
+        // Label a distinct cluster close to each color of interest.
+        double[][] targets = new double[colors.height()][];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = new double[] {colors.get(i, 0)[0], colors.get(i, 1)[0],
+                                       colors.get(i, 2)[0]};
+        }
+        int[] assigned = assignCenters(centers, targets);
+        int[] centerLabels = new int[centers.length];
+        for (int j = 0; j < centerLabels.length; j++) {
+            centerLabels[j] = BACKGROUND;
+        }
+        for (int i = 0; i < assigned.length; i++) {
+            centerLabels[assigned[i]] = i;
+        }
+
+        return new ColorLookupTable(centers, centerLabels, colors.height());
+    }
+
+    /**
+     * Looks up the label of a color.
+     * @param c0 First channel (0-255).
+     * @param c1 Second channel (0-255).
+     * @param c2 Third channel (0-255).
+     * @return The color index, or BACKGROUND.
+     */
+    public byte lookup(int c0, int c1, int c2) {
+        int shift = 8 - BITS;
+        return table[index(c0 >> shift, c1 >> shift, c2 >> shift)];
+    }
+
+    /**
+     * Classifies interleaved 3 channel pixels.
+     * @param pixels The pixel data (CV_8UC3 layout).
+     * @param offset The index of the first pixel (in pixels, not bytes).
+     * @param count The number of pixels to classify.
+     * @param labels Output labels, written at the same pixel indices.
+     */
+    public void classify(byte[] pixels, int offset, int count, byte[] labels) {
+        int shift = 8 - BITS;
+        int p = offset * 3;
+        for (int i = offset; i < offset + count; i++) {
+            int c0 = (pixels[p++] & 0xff) >> shift;
+            int c1 = (pixels[p++] & 0xff) >> shift;
+            int c2 = (pixels[p++] & 0xff) >> shift;
+            labels[i] = table[index(c0, c1, c2)];
+        }
+    }
+
+    /**
+     * Gets the number of colors of interest.
+     */
+    public int getNumColors() {
+        return numColors;
+    }
+
+    /**
+     * Gets the cluster color assigned to a color of interest.
+     * @param color The color index.
+     * @return The color (3 channels), black if no cluster was assigned.
+     */
+    public byte[] getRenderColor(int color) {
+        return renderColors[color];
+    }
+
+    /**
+     * Clusters the pixel colors of images.
+     * @param images The images (CV_8UC3).
+     * @param downscale Factor to shrink images by before clustering.
+     * @param totalClusters The total clusters of colors to find.
+     * @param clusterIterations Number of iterations when performing kmeans clustering.
+     * @param clusterEpsilon Epsilon where clustering can be terminated.
+     * @param clusterAttempts Number of attempts (e.g. random initialization) to cluster.
+     * @return The cluster centers (Kx3, same channel order as images).
+     */
+    static float[][] clusterColors(List<Mat> images, int downscale,
+                                   int totalClusters, int clusterIterations,
+                                   double clusterEpsilon, int clusterAttempts) {
+        // Gather pixels from every image into one sample set.
+        int numPixels = 0;
+        Mat[] small = new Mat[images.size()];
+        for (int i = 0; i < small.length; i++) {
+            Mat img = images.get(i);
+            small[i] = new Mat();
+            Imgproc.resize(img, small[i],
+                           new Size(img.width()/downscale, img.height()/downscale));
+            numPixels += small[i].width() * small[i].height();
+        }
+        float[] samples = new float[numPixels * 3];
+        int offset = 0;
+        for (Mat img : small) {
+            byte[] pixels = new byte[img.width() * img.height() * 3];
+            img.get(0, 0, pixels);
+            for (int p = 0; p < pixels.length; p++) {
+                samples[offset++] = pixels[p] & 0xff;
+            }
+        }
+        Mat colorSeq = new Mat(numPixels, 3, CvType.CV_32F);
+        colorSeq.put(0, 0, samples);
+
+        // Cluster pixels into K color clusters.
+        Mat labels = new Mat();
+        Mat centersMat = new Mat();
+        Core.kmeans(colorSeq, totalClusters, labels,
+                    new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER,
+                                     clusterIterations, clusterEpsilon),
+                    clusterAttempts, Core.KMEANS_RANDOM_CENTERS, centersMat);
+        float[][] centers = new float[centersMat.rows()][3];
+        for (int j = 0; j < centers.length; j++) {
+            centersMat.get(j, 0, centers[j]);
+        }
+        return centers;
+    }
+
+    /**
+     * Assigns each color its own cluster center, as close as possible.
+     * The closest remaining color and center pair is assigned first, so
+     * near-identical colors fall back to the next closest unused center
+     * rather than sharing one.
+     * @param centers The cluster centers (Kx3).
+     * @param colors The colors (Nx3).
+     * @return The index of the center of each color.
+     * @throws IllegalArgumentException If there are more colors than centers.
+     */
+    static int[] assignCenters(float[][] centers, double[][] colors) {
+        if (colors.length > centers.length) {
+            throw new IllegalArgumentException(
+                    "Need a cluster per color, got " + centers.length +
+                    " clusters for " + colors.length + " colors.");
+        }
+        int[] assigned = new int[colors.length];
+        boolean[] colorDone = new boolean[colors.length];
+        boolean[] centerUsed = new boolean[centers.length];
+        for (int n = 0; n < colors.length; n++) {
+            double closestDist = Double.MAX_VALUE;
+            int closestColor = -1;
+            int closestCenter = -1;
+            for (int i = 0; i < colors.length; i++) {
+                if (colorDone[i]) {
+                    continue;
+                }
+                for (int j = 0; j < centers.length; j++) {
+                    if (centerUsed[j]) {
+                        continue;
+                    }
+                    double dist = 0;
+                    for (int c = 0; c < 3; c++) {
+                        double d = centers[j][c] - colors[i][c];
+                        dist += d * d;
+                    }
+                    if (dist < closestDist) {
+                        closestDist = dist;
+                        closestColor = i;
+                        closestCenter = j;
+                    }
+                }
+            }
+            assigned[closestColor] = closestCenter;
+            colorDone[closestColor] = true;
+            centerUsed[closestCenter] = true;
+        }
+        return assigned;
+    }
+
+    /**
+     * Computes the table index of a quantized color.
+     */
+    private static int index(int q0, int q1, int q2) {
+        return (q0 << (2 * BITS)) | (q1 << BITS) | q2;
+    }
+
+    // The number of colors of interest.
+    private int numColors;
+    // Label of each quantized color.
+    private byte[] table;
+    // The cluster color assigned to each color of interest.
+    private byte[][] renderColors;
+}
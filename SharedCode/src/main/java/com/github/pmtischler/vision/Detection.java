@@ -0,0 +1,111 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.Mat;
+
+/**
+ * Result of a beacon detection.
+ * Holds the color positions along with how they were found.
+ */
+public class Detection {
+    // Color centers (Nx2), normalized to [0,1] of the image.
+    public final Mat positions;
+    // Number of pixels assigned to each color.
+    public final int[] pixelCounts;
+    // Width of the image actually processed (pixels).
+    public final int width;
+    // Height of the image actually processed (pixels).
+    public final int height;
+    // Factor the image was shrunk by before processing.
+    public final int downscale;
+    // Confidence in the positions (0 to 1).
+    public final double confidence;
+    // Whether this is an earlier detection reused for a newer frame, e.g.
+    // as the scene was unchanged. Trackers should not fuse it again.
+    public final boolean reused;
+
+    /**
+     * Creates a Detection, confident if every color has pixels.
+     * @param positions Color centers (Nx2), normalized to [0,1] of the image.
+     * @param pixelCounts Number of pixels assigned to each color.
+     * @param width Width of the image actually processed (pixels).
+     * @param height Height of the image actually processed (pixels).
+     * @param downscale Factor the image was shrunk by before processing.
+     */
+    public Detection(Mat positions, int[] pixelCounts, int width, int height,
+                     int downscale) {
+        this(positions, pixelCounts, width, height, downscale,
+             allFound(pixelCounts) ? 1 : 0);
+    }
+
+    /**
+     * Creates a Detection.
+     * @param positions Color centers (Nx2), normalized to [0,1] of the image.
+     * @param pixelCounts Number of pixels assigned to each color.
+     * @param width Width of the image actually processed (pixels).
+     * @param height Height of the image actually processed (pixels).
+     * @param downscale Factor the image was shrunk by before processing.
+     * @param confidence Confidence in the positions (0 to 1).
+     */
+    public Detection(Mat positions, int[] pixelCounts, int width, int height,
+                     int downscale, double confidence) {
+        this(positions, pixelCounts, width, height, downscale, confidence, false);
+    }
+
+    /**
+     * Creates a Detection.
+     */
+    private Detection(Mat positions, int[] pixelCounts, int width, int height,
+                      int downscale, double confidence, boolean reused) {
+        this.positions = positions;
+        this.pixelCounts = pixelCounts;
+        this.width = width;
+        this.height = height;
+        this.downscale = downscale;
+        this.confidence = confidence;
+        this.reused = reused;
+    }
+
+    /**
+     * Gets a deep copy of this detection, not sharing the positions or
+     * pixel counts, e.g. to hand to another thread.
+     * @return The copy.
+     */
+    public Detection copy() {
+        return new Detection(positions.clone(), pixelCounts.clone(), width, height,
+                             downscale, confidence, reused);
+    }
+
+    /**
+     * Gets this detection marked as reused for a newer frame.
+     * @return The detection, sharing the positions and pixel counts.
+     */
+    public Detection reuse() {
+        return new Detection(positions, pixelCounts, width, height, downscale,
+                             confidence, true);
+    }
+
+    /**
+     * Gets the fraction of processed pixels assigned to a color.
+     * @param color The color index.
+     * @return The fraction (0 to 1).
+     */
+    public double getFraction(int color) {
+        int total = width * height;
+        if (total == 0) {
+            return 0;
+        }
+        return pixelCounts[color] / (double)total;
+    }
+
+    /**
+     * Whether every color has pixels.
+     */
+    private static boolean allFound(int[] pixelCounts) {
+        for (int count : pixelCounts) {
+            if (count == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.Mat;
+
+/**
+ * Locates with a cheap strategy, falling back to an expensive one only when
+ * the cheap strategy is not confident.
+ * E.g. HsvBeaconDetector first, BeaconDetector (kmeans) as the fallback.
+ */
+public class FallbackLocator implements BeaconLocator {
+    /**
+     * Creates a fallback locator.
+     * @param primary The strategy tried first.
+     * @param fallback The strategy used when the primary is not confident.
+     * @param minConfidence Confidence the primary needs to be used (0 to 1).
+     */
+    public FallbackLocator(BeaconLocator primary, BeaconLocator fallback,
+                           double minConfidence) {
+        this.primary = primary;
+        this.fallback = fallback;
+        this.minConfidence = minConfidence;
+        numLocates = 0;
+        numFallbacks = 0;
+    }
+
+    @Override
+    public Detection locate(Frame frame) {
+        numLocates++;
+        // Both strategies share the frame's views, so the fallback does not
+        // repeat the primary's resize.
+        Detection detection = primary.locate(frame);
+        if (detection.confidence >= minConfidence) {
+            return detection;
+        }
+        numFallbacks++;
+        return fallback.locate(frame);
+    }
+
+    /**
+     * Locates the colors of interest in an image.
+     * @param img The image (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @return The detection.
+     */
+    public Detection locate(Mat img) {
+        Frame frame = new Frame(img);
+        try {
+            return locate(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Gets the fraction of locates which needed the fallback.
+     * @return The fraction (0 to 1).
+     */
+    public double getFallbackRate() {
+        if (numLocates == 0) {
+            return 0;
+        }
+        return numFallbacks / (double)numLocates;
+    }
+
+    // The strategy tried first.
+    private BeaconLocator primary;
+    // The strategy used when the primary is not confident.
+    private BeaconLocator fallback;
+    // Confidence the primary needs to be used.
+    private double minConfidence;
+    // Number of locates.
+    private int numLocates;
+    // Number of locates which used the fallback.
+    private int numFallbacks;
+}
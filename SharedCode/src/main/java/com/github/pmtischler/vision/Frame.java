@@ -0,0 +1,346 @@
+package com.github.pmtischler.vision;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A camera frame with lazily computed derived views.
+ * Every consumer of the frame (e.g. several detectors) shares the views, so
+ * each resize or color conversion is done at most once per frame.
+ * Views are valid until the frame is released.
+ * Frames made from an NV21 buffer serve the Y plane as the grayscale view
+ * and the interleaved V/U plane as a half resolution chroma view, both
+ * without conversion; the color image is only converted when asked for.
+ */
+public class Frame {
+    /**
+     * Creates a frame whose views are allocated as needed.
+     * @param image The image (CV_8UC3 BGR). Not released with the frame.
+     */
+    public Frame(Mat image) {
+        this(image, null, false, System.nanoTime());
+    }
+
+    /**
+     * Creates a frame whose image and views come from a pool.
+     * @param image The image (CV_8UC3 BGR). Returned to the pool on release.
+     * @param pool The pool views are taken from and returned to.
+     */
+    public Frame(Mat image, MatPool pool) {
+        this(image, pool, true, System.nanoTime());
+    }
+
+    /**
+     * Creates a frame whose image and views come from a pool.
+     * @param image The image (CV_8UC3 BGR). Returned to the pool on release.
+     * @param pool The pool views are taken from and returned to.
+     * @param captureNanos When the image was captured (System.nanoTime()).
+     */
+    public Frame(Mat image, MatPool pool, long captureNanos) {
+        this(image, pool, true, captureNanos);
+    }
+
+    /**
+     * Creates a frame backed by an NV21 buffer.
+     * The buffer holds the Y plane, optionally followed by the V/U plane.
+     * @param nv21 The buffer (CV_8UC1, height or height * 3/2 rows).
+     *   Returned to the pool on release.
+     * @param height The image height (rows of the Y plane).
+     * @param pool The pool views are taken from and returned to.
+     * @param captureNanos When the image was captured (System.nanoTime()).
+     * @return The frame, whose color image is only available with chroma.
+     */
+    public static Frame fromNv21(Mat nv21, int height, MatPool pool,
+                                 long captureNanos) {
+        Frame frame = new Frame(null, pool, false, captureNanos);
+        frame.nv21 = nv21;
+        frame.luma = nv21.submat(0, height, 0, nv21.cols());
+        if (nv21.rows() >= height * 3 / 2) {
+            // Interleaved V/U rows, viewed as two channels at half width.
+            frame.chroma = nv21.submat(height, height * 3 / 2, 0, nv21.cols())
+                .reshape(2, height / 2);
+        }
+        return frame;
+    }
+
+    /**
+     * Creates a frame.
+     */
+    private Frame(Mat image, MatPool pool, boolean ownsImage, long captureNanos) {
+        this.image = image;
+        nv21 = null;
+        luma = null;
+        chroma = null;
+        this.pool = pool;
+        this.ownsImage = ownsImage;
+        this.captureNanos = captureNanos;
+        decodeNanos = System.nanoTime();
+        downscaled = new HashMap<Integer, Mat>();
+        floats = new HashMap<Integer, Mat>();
+        hsvs = new HashMap<Integer, Mat>();
+        grays = new HashMap<Integer, Mat>();
+        views = new ArrayList<Mat>();
+        released = false;
+    }
+
+    /**
+     * Gets when the image was captured.
+     * @return The time (System.nanoTime()), or when the frame was created if
+     *   the capture time is unknown.
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /**
+     * Gets when the image was ready, i.e. when the frame was created.
+     * @return The time (System.nanoTime()).
+     */
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /**
+     * Gets the full resolution image width, without any conversion.
+     * @return The width in pixels.
+     */
+    public synchronized int getWidth() {
+        checkNotReleased();
+        return luma != null ? luma.cols() : image.cols();
+    }
+
+    /**
+     * Gets the full resolution image height, without any conversion.
+     * @return The height in pixels.
+     */
+    public synchronized int getHeight() {
+        checkNotReleased();
+        return luma != null ? luma.rows() : image.rows();
+    }
+
+    /**
+     * Whether the color image is available, i.e. the frame is not a luma
+     * only NV21 frame. Consumers needing color must check this first.
+     * @return True if getImage() can be called.
+     */
+    public synchronized boolean hasColor() {
+        checkNotReleased();
+        return image != null || chroma != null;
+    }
+
+    /**
+     * Gets the full resolution image.
+     * For NV21 frames, the image is converted on first use.
+     * Luma only frames have no image; see hasColor().
+     * @return The image (CV_8UC3 BGR).
+     */
+    public synchronized Mat getImage() {
+        checkNotReleased();
+        if (image == null) {
+            if (chroma == null) {
+                throw new IllegalStateException("Frame has no chroma.");
+            }
+            image = acquire(luma.rows(), luma.cols(), CvType.CV_8UC3);
+            Imgproc.cvtColor(nv21, image, Imgproc.COLOR_YUV2BGR_NV21);
+        }
+        return image;
+    }
+
+    /**
+     * Gets the full resolution luma (grayscale) image.
+     * For NV21 frames, this is a view of the Y plane.
+     * @return The image (CV_8UC1).
+     */
+    public Mat getLuma() {
+        return getGray(1);
+    }
+
+    /**
+     * Gets the half resolution chroma image of an NV21 frame.
+     * @return The image (CV_8UC2 V/U), null if the frame has no chroma.
+     */
+    public synchronized Mat getChroma() {
+        checkNotReleased();
+        return chroma;
+    }
+
+    /**
+     * Gets the image shrunk by a factor (width/factor by height/factor).
+     * @param factor The downscale factor (1 for the image itself).
+     * @return The image (CV_8UC3 BGR).
+     */
+    public synchronized Mat getDownscaled(int factor) {
+        Mat src = getImage();
+        if (factor == 1) {
+            return src;
+        }
+        Mat view = downscaled.get(factor);
+        if (view == null) {
+            view = acquire(src.height() / factor, src.width() / factor,
+                           src.type());
+            Imgproc.resize(src, view,
+                           new Size(src.width() / factor, src.height() / factor));
+            downscaled.put(factor, view);
+        }
+        return view;
+    }
+
+    /**
+     * Gets the downscaled image as floats.
+     * @param factor The downscale factor.
+     * @return The image (CV_32FC3 BGR).
+     */
+    public synchronized Mat getFloat(int factor) {
+        Mat view = floats.get(factor);
+        if (view == null) {
+            Mat src = getDownscaled(factor);
+            view = acquire(src.rows(), src.cols(), CvType.CV_32FC3);
+            src.convertTo(view, CvType.CV_32FC3);
+            floats.put(factor, view);
+        }
+        return view;
+    }
+
+    /**
+     * Gets the downscaled image in HSV.
+     * @param factor The downscale factor.
+     * @return The image (CV_8UC3 HSV, hue 0-180).
+     */
+    public synchronized Mat getHsv(int factor) {
+        Mat view = hsvs.get(factor);
+        if (view == null) {
+            Mat src = getDownscaled(factor);
+            view = acquire(src.rows(), src.cols(), CvType.CV_8UC3);
+            Imgproc.cvtColor(src, view, Imgproc.COLOR_BGR2HSV);
+            hsvs.put(factor, view);
+        }
+        return view;
+    }
+
+    /**
+     * Gets the downscaled image in grayscale.
+     * @param factor The downscale factor.
+     * @return The image (CV_8UC1).
+     */
+    public synchronized Mat getGray(int factor) {
+        checkNotReleased();
+        if (luma != null) {
+            return getDownscaledLuma(factor);
+        }
+        Mat view = grays.get(factor);
+        if (view == null) {
+            Mat src = getDownscaled(factor);
+            view = acquire(src.rows(), src.cols(), CvType.CV_8UC1);
+            Imgproc.cvtColor(src, view, Imgproc.COLOR_BGR2GRAY);
+            grays.put(factor, view);
+        }
+        return view;
+    }
+
+    /**
+     * Gets the Y plane shrunk by a factor.
+     */
+    private Mat getDownscaledLuma(int factor) {
+        if (factor == 1) {
+            return luma;
+        }
+        Mat view = grays.get(factor);
+        if (view == null) {
+            view = acquire(luma.height() / factor, luma.width() / factor,
+                           CvType.CV_8UC1);
+            Imgproc.resize(luma, view,
+                           new Size(luma.width() / factor, luma.height() / factor));
+            grays.put(factor, view);
+        }
+        return view;
+    }
+
+    /**
+     * Releases the views, returning pooled buffers to the pool.
+     * Neither the frame nor its views may be used afterwards.
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (Mat view : views) {
+            if (pool != null) {
+                pool.release(view);
+            } else {
+                view.release();
+            }
+        }
+        views.clear();
+        downscaled.clear();
+        floats.clear();
+        hsvs.clear();
+        grays.clear();
+        if (ownsImage && pool != null) {
+            pool.release(image);
+        }
+        if (nv21 != null) {
+            luma.release();
+            if (chroma != null) {
+                chroma.release();
+            }
+            if (pool != null) {
+                pool.release(nv21);
+            }
+        }
+    }
+
+    /**
+     * Gets a buffer for a view, tracking it for release.
+     */
+    private Mat acquire(int rows, int cols, int type) {
+        Mat view;
+        if (pool != null) {
+            view = pool.acquire(rows, cols, type);
+        } else {
+            view = new Mat(rows, cols, type);
+        }
+        views.add(view);
+        return view;
+    }
+
+    /**
+     * Throws if the frame was released.
+     */
+    private void checkNotReleased() {
+        if (released) {
+            throw new IllegalStateException("Frame already released.");
+        }
+    }
+
+    // The full resolution image, null until converted for NV21 frames.
+    private Mat image;
+    // The NV21 buffer, null unless made from one.
+    private Mat nv21;
+    // Views of the NV21 Y and V/U planes, null if not available.
+    private Mat luma;
+    private Mat chroma;
+    // The pool buffers come from, null to allocate.
+    private MatPool pool;
+    // Whether the image is returned to the pool on release.
+    private boolean ownsImage;
+    // When the image was captured (System.nanoTime()).
+    private long captureNanos;
+    // When the frame was created (System.nanoTime()).
+    private long decodeNanos;
+    // Views by downscale factor.
+    private Map<Integer, Mat> downscaled;
+    private Map<Integer, Mat> floats;
+    private Map<Integer, Mat> hsvs;
+    private Map<Integer, Mat> grays;
+    // Every view buffer, to release.
+    private List<Mat> views;
+    // Whether the frame was released.
+    private boolean released;
+}
@@ -0,0 +1,27 @@
+package com.github.pmtischler.vision;
+
+/**
+ * Source of camera frames.
+ * Implemented by the robot's camera and by replay sources, so the same
+ * vision code runs on the phone and on a desktop.
+ * A capture is started, then the frame is taken once available.
+ */
+public interface FrameSource {
+    /**
+     * Starts capturing the next frame.
+     * @return Whether the capture was started.
+     */
+    public boolean startCapture();
+
+    /**
+     * Takes the captured frame without blocking.
+     * Release the frame when done, which returns its buffers.
+     * @return The frame, or null if no frame is available yet.
+     */
+    public Frame takeFrame();
+
+    /**
+     * Stops the source, releasing its resources.
+     */
+    public void stop();
+}
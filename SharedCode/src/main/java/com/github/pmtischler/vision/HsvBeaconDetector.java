@@ -0,0 +1,247 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.imgproc.Moments;
+
+/**
+ * HSV threshold beacon detector.
+ * A cheap alternative to BeaconDetector's kmeans clustering for when the
+ * beacon colors are well separated in hue.
+ * Procedure:
+ *   + Convert the image to HSV.
+ *   + Pick the minimum saturation with Otsu's method on the saturation.
+ *   + Threshold each color within a hue range around its calibrated hue.
+ *   + Find the centroid of each color with image moments.
+ *   + Nudge each calibrated hue toward the mean hue of its pixels.
+ * Confidence is low when a color covers little of the image or is spread
+ * out, in which case the caller should fall back to kmeans.
+ */
+public class HsvBeaconDetector implements BeaconLocator {
+    /**
+     * Creates an HSV beacon detector.
+     * @param colors Colors (Nx3 RGB, same channel order as images) to search for.
+     */
+    public HsvBeaconDetector(Mat colors) {
+        // Start from the hue of each color of interest.
+        numColors = colors.height();
+        Mat palette = new Mat(1, numColors, CvType.CV_8UC3);
+        for (int i = 0; i < numColors; i++) {
+            byte[] color = {(byte)colors.get(i, 0)[0], (byte)colors.get(i, 1)[0],
+                            (byte)colors.get(i, 2)[0]};
+            palette.put(0, i, color);
+        }
+        Mat paletteHsv = new Mat();
+        Imgproc.cvtColor(palette, paletteHsv, Imgproc.COLOR_BGR2HSV);
+        paletteHues = new double[numColors];
+        hues = new double[numColors];
+        for (int i = 0; i < numColors; i++) {
+            paletteHues[i] = paletteHsv.get(0, i)[0];
+            hues[i] = paletteHues[i];
+        }
+
+        // Parameters selected for problem.
+        downscale = 9;
+        hueTolerance = 12;
+        minSaturation = 60;
+        minValue = 40;
+        expectedFraction = 0.02;
+        maxSpread = 0.35;
+        adaptRate = 0.2;
+
+        // Buffers reused across frames.
+        channel = new Mat();
+        ignored = new Mat();
+        mask = new Mat();
+        wrapped = new Mat();
+        hueData = new byte[0];
+        maskData = new byte[0];
+    }
+
+    /**
+     * Sets the factor images are shrunk by before detection.
+     * @param downscale The downscale factor (at least 1).
+     */
+    public void setDownscale(int downscale) {
+        if (downscale < 1) {
+            throw new IllegalArgumentException("Downscale must be at least 1.");
+        }
+        this.downscale = downscale;
+    }
+
+    /**
+     * Sets the thresholds.
+     * @param hueTolerance Hue distance (0-90, OpenCV hue units) from a color's hue.
+     * @param minSaturation Saturation floor below the automatic threshold (0-255).
+     * @param minValue Value below which pixels are ignored (0-255).
+     */
+    public void setThresholds(double hueTolerance, double minSaturation,
+                              double minValue) {
+        this.hueTolerance = hueTolerance;
+        this.minSaturation = minSaturation;
+        this.minValue = minValue;
+    }
+
+    /**
+     * Sets how confidence is scored.
+     * @param expectedFraction Fraction of the image a color must cover for full confidence.
+     * @param maxSpread Spread (std dev over image diagonal) with zero confidence.
+     */
+    public void setConfidence(double expectedFraction, double maxSpread) {
+        this.expectedFraction = expectedFraction;
+        this.maxSpread = maxSpread;
+    }
+
+    /**
+     * Gets the calibrated hue of a color.
+     * @param color The color index.
+     * @return The hue (0-180, OpenCV hue units).
+     */
+    public double getHue(int color) {
+        return hues[color];
+    }
+
+    @Override
+    public Detection locate(Frame frame) {
+        if (!frame.hasColor()) {
+            throw new IllegalArgumentException("Frame must have color.");
+        }
+        // Resize image to trade accuracy for speed.
+        Mat hsv = frame.getHsv(downscale);
+        int width = hsv.width();
+        int height = hsv.height();
+
+        // Saturation threshold adapts to the lighting.
+        Core.extractChannel(hsv, channel, 1);
+        double saturation = Math.max(minSaturation,
+                Imgproc.threshold(channel, ignored, 0, 255,
+                                  Imgproc.THRESH_BINARY + Imgproc.THRESH_OTSU));
+
+        Mat colorPositions = Mat.zeros(numColors, 2, CvType.CV_64F);
+        int[] pixelCounts = new int[numColors];
+        double confidence = 1;
+        if (hueData.length != width * height) {
+            hueData = new byte[width * height];
+            maskData = new byte[width * height];
+        }
+        Core.extractChannel(hsv, channel, 0);
+        channel.get(0, 0, hueData);
+        for (int i = 0; i < numColors; i++) {
+            // Hue is circular, so ranges past either end wrap around.
+            double low = hues[i] - hueTolerance;
+            double high = hues[i] + hueTolerance;
+            Core.inRange(hsv, new Scalar(Math.max(0, low), saturation, minValue),
+                         new Scalar(Math.min(180, high), 255, 255), mask);
+            if (low < 0) {
+                Core.inRange(hsv, new Scalar(180 + low, saturation, minValue),
+                             new Scalar(180, 255, 255), wrapped);
+                Core.bitwise_or(mask, wrapped, mask);
+            }
+            if (high > 180) {
+                Core.inRange(hsv, new Scalar(0, saturation, minValue),
+                             new Scalar(high - 180, 255, 255), wrapped);
+                Core.bitwise_or(mask, wrapped, mask);
+            }
+
+            Moments m = Imgproc.moments(mask, true);
+            pixelCounts[i] = (int)m.m00;
+            if (m.m00 == 0) {
+                confidence = 0;
+                continue;
+            }
+            double[] x = {(m.m10 / m.m00) / width};
+            double[] y = {(m.m01 / m.m00) / height};
+            colorPositions.put(i, 0, x);
+            colorPositions.put(i, 1, y);
+
+            // Confidence from coverage and how compact the color is.
+            double coverage = Math.min(1, m.m00 / (width * height) / expectedFraction);
+            double spread = Math.sqrt((m.mu20 + m.mu02) / m.m00) /
+                            Math.sqrt(width * width + height * height);
+            double compactness = Math.max(0, 1 - spread / maxSpread);
+            confidence = Math.min(confidence, coverage * compactness);
+
+            mask.get(0, 0, maskData);
+            adaptHue(i, hueData, maskData);
+        }
+
+        return new Detection(colorPositions, pixelCounts, width, height,
+                             downscale, confidence);
+    }
+
+    /**
+     * Locates the colors of interest in an image.
+     * @param img The image (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @return The detection.
+     */
+    public Detection locate(Mat img) {
+        Frame frame = new Frame(img);
+        try {
+            return locate(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Moves a color's hue toward the mean hue of its pixels, staying within
+     * the tolerance of the original color.
+     * @param color The color index.
+     * @param hueData The hue of each pixel.
+     * @param maskData Non-zero for pixels of the color.
+     */
+    private void adaptHue(int color, byte[] hueData, byte[] maskData) {
+        double sum = 0;
+        int count = 0;
+        for (int p = 0; p < hueData.length; p++) {
+            if (maskData[p] != 0) {
+                // Offset from the current hue, in [-90, 90).
+                double offset = (hueData[p] & 0xff) - hues[color];
+                offset = ((offset + 90) % 180 + 180) % 180 - 90;
+                sum += offset;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        double hue = hues[color] + adaptRate * (sum / count);
+        double drift = ((hue - paletteHues[color] + 90) % 180 + 180) % 180 - 90;
+        drift = Math.max(-hueTolerance, Math.min(hueTolerance, drift));
+        hues[color] = ((paletteHues[color] + drift) % 180 + 180) % 180;
+    }
+
+    // The number of colors of interest.
+    private int numColors;
+    // Hue of each color of interest as given.
+    private double[] paletteHues;
+    // Calibrated hue of each color of interest.
+    private double[] hues;
+
+    // Factor images are shrunk by before detection.
+    private int downscale;
+    // Hue distance from a color's hue.
+    private double hueTolerance;
+    // Saturation floor below the automatic threshold.
+    private double minSaturation;
+    // Value below which pixels are ignored.
+    private double minValue;
+    // Fraction of the image a color must cover for full confidence.
+    private double expectedFraction;
+    // Spread with zero confidence.
+    private double maxSpread;
+    // Rate the calibrated hues move toward the detected hues.
+    private double adaptRate;
+
+    // Reused buffers, only touched by locate. Like the calibrated hues,
+    // they confine each detector to one thread at a time.
+    private Mat channel;
+    private Mat ignored;
+    private Mat mask;
+    private Mat wrapped;
+    private byte[] hueData;
+    private byte[] maskData;
+}
@@ -0,0 +1,66 @@
+package com.github.pmtischler.vision;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Frame source replaying the images of a directory, in file name order.
+ */
+public class ImageDirectorySource extends ReplaySource {
+    /**
+     * Creates a source.
+     * @param dir The directory of images (png, jpg or bmp).
+     * @param rate Most frames per second, 0 for as fast as taken.
+     */
+    public ImageDirectorySource(File dir, double rate) {
+        super(rate);
+        File[] all = dir.listFiles();
+        if (all == null) {
+            throw new IllegalArgumentException("Not a directory: " + dir);
+        }
+        Arrays.sort(all);
+        files = new ArrayList<File>();
+        for (File file : all) {
+            String name = file.getName().toLowerCase();
+            if (name.endsWith(".png") || name.endsWith(".jpg") ||
+                name.endsWith(".jpeg") || name.endsWith(".bmp")) {
+                files.add(file);
+            }
+        }
+        next = 0;
+    }
+
+    /**
+     * Gets the number of images in the directory.
+     */
+    public int size() {
+        return files.size();
+    }
+
+    @Override
+    protected Mat read(MatPool pool) {
+        if (next >= files.size()) {
+            return null;
+        }
+        File file = files.get(next++);
+        Mat image = Imgcodecs.imread(file.getPath());
+        if (image.empty()) {
+            throw new IllegalArgumentException("Unable to read " + file);
+        }
+        return image;
+    }
+
+    @Override
+    protected void close() {
+        next = files.size();
+    }
+
+    // The images, in order.
+    private List<File> files;
+    // Index of the next image.
+    private int next;
+}
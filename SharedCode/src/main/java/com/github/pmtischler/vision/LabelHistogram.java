@@ -0,0 +1,118 @@
+package com.github.pmtischler.vision;
+
+/**
+ * Per-color position histograms of a labeled image.
+ * Counts how many pixels of each color fall in each column and row, which
+ * gives the median position of a color in O(N) rather than sorting.
+ */
+public class LabelHistogram {
+    /**
+     * Creates an empty histogram.
+     * @param numColors The number of colors (labels 0 to numColors-1).
+     * @param width The width of the labeled image.
+     * @param height The height of the labeled image.
+     */
+    public LabelHistogram(int numColors, int width, int height) {
+        this.width = width;
+        this.height = height;
+        counts = new int[numColors];
+        xCounts = new int[numColors][width];
+        yCounts = new int[numColors][height];
+    }
+
+    /**
+     * Adds labeled rows to the histogram.
+     * @param labels The labels in row-major order, negative for background.
+     * @param offset The index of the first label to add.
+     * @param firstRow The image row of the first label.
+     * @param numRows The number of rows to add.
+     */
+    public void add(byte[] labels, int offset, int firstRow, int numRows) {
+        for (int y = firstRow; y < firstRow + numRows; y++) {
+            for (int x = 0; x < width; x++) {
+                int label = labels[offset++];
+                if (label >= 0 && label < counts.length) {
+                    counts[label]++;
+                    xCounts[label][x]++;
+                    yCounts[label][y]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds another histogram of the same image into this one.
+     * @param other The histogram to add.
+     */
+    public void merge(LabelHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            for (int x = 0; x < width; x++) {
+                xCounts[i][x] += other.xCounts[i][x];
+            }
+            for (int y = 0; y < height; y++) {
+                yCounts[i][y] += other.yCounts[i][y];
+            }
+        }
+    }
+
+    /**
+     * Gets the number of pixels with a color.
+     * @param color The color index.
+     * @return The pixel count.
+     */
+    public int count(int color) {
+        return counts[color];
+    }
+
+    /**
+     * Gets the median column of a color.
+     * Matches the element at size/2 of the sorted column positions.
+     * @param color The color index.
+     * @return The median column, or -1 if the color has no pixels.
+     */
+    public int medianX(int color) {
+        return median(xCounts[color], counts[color]);
+    }
+
+    /**
+     * Gets the median row of a color.
+     * Matches the element at size/2 of the sorted row positions.
+     * @param color The color index.
+     * @return The median row, or -1 if the color has no pixels.
+     */
+    public int medianY(int color) {
+        return median(yCounts[color], counts[color]);
+    }
+
+    /**
+     * Finds the median bin of a histogram.
+     * @param bins The histogram bins.
+     * @param total The sum of the bins.
+     * @return The median bin, or -1 if empty.
+     */
+    private static int median(int[] bins, int total) {
+        if (total == 0) {
+            return -1;
+        }
+        int seen = 0;
+        for (int i = 0; i < bins.length; i++) {
+            seen += bins[i];
+            if (seen > total / 2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // The width of the labeled image.
+    private int width;
+    // The height of the labeled image.
+    private int height;
+    // The number of pixels of each color.
+    private int[] counts;
+    // The number of pixels of each color in each column.
+    private int[][] xCounts;
+    // The number of pixels of each color in each row.
+    private int[][] yCounts;
+}
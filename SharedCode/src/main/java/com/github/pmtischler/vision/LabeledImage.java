@@ -0,0 +1,46 @@
+package com.github.pmtischler.vision;
+
+/**
+ * An image with a label per pixel.
+ * Labels are classes found by a detector stage, e.g. cluster indices or
+ * lookup table colors. Each color of interest maps to one label.
+ * Produced by reused stage buffers, so only valid until the stage runs again.
+ */
+public class LabeledImage {
+    // The label of each pixel in row-major order, negative for background.
+    public final byte[] labels;
+    // The number of labels (0 to numLabels-1).
+    public final int numLabels;
+    // The label of each color of interest.
+    public final int[] colorLabels;
+    // The color (3 channels) each color of interest is rendered in.
+    public final byte[][] renderColors;
+    // The image width.
+    public final int width;
+    // The image height.
+    public final int height;
+    // Position histogram of every label, null if not yet computed.
+    public final LabelHistogram histogram;
+
+    /**
+     * Creates a LabeledImage.
+     * @param labels The label of each pixel in row-major order, negative for background.
+     * @param numLabels The number of labels.
+     * @param colorLabels The label of each color of interest.
+     * @param renderColors The color each color of interest is rendered in.
+     * @param width The image width.
+     * @param height The image height.
+     * @param histogram Position histogram of every label, null if not yet computed.
+     */
+    public LabeledImage(byte[] labels, int numLabels, int[] colorLabels,
+                        byte[][] renderColors, int width, int height,
+                        LabelHistogram histogram) {
+        this.labels = labels;
+        this.numLabels = numLabels;
+        this.colorLabels = colorLabels;
+        this.renderColors = renderColors;
+        this.width = width;
+        this.height = height;
+        this.histogram = histogram;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.pmtischler.vision;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolling latencies between the timestamps of a frame's path.
+ * Each record takes the timestamps a frame reached each point (e.g. sensor
+ * callback, decode, detect, actuation) and times every span between them,
+ * plus the whole path, so the slow span can be tuned against evidence.
+ */
+public class LatencyBreakdown {
+    /**
+     * Creates an empty breakdown.
+     * @param windowSize The number of recent samples kept per span.
+     * @param spans The span names, in order. Each ends at a timestamp, e.g.
+     *   "decode" for the time from capture until decoded.
+     */
+    public LatencyBreakdown(int windowSize, String... spans) {
+        if (spans.length == 0) {
+            throw new IllegalArgumentException("Need at least one span.");
+        }
+        this.spans = spans.clone();
+        histograms = new ArrayList<LatencyHistogram>();
+        for (int i = 0; i < spans.length; i++) {
+            histograms.add(new LatencyHistogram(windowSize));
+        }
+        total = new LatencyHistogram(windowSize);
+    }
+
+    /**
+     * Records the timestamps of one frame.
+     * @param timestamps When each point was reached (System.nanoTime()),
+     *   one more than the number of spans.
+     */
+    public void record(long... timestamps) {
+        if (timestamps.length != spans.length + 1) {
+            throw new IllegalArgumentException(
+                    "Expected " + (spans.length + 1) + " timestamps.");
+        }
+        for (int i = 0; i < spans.length; i++) {
+            histograms.get(i).record(timestamps[i + 1] - timestamps[i]);
+        }
+        total.record(timestamps[spans.length] - timestamps[0]);
+    }
+
+    /**
+     * Gets the number of spans.
+     */
+    public int getNumSpans() {
+        return spans.length;
+    }
+
+    /**
+     * Gets the name of a span.
+     * @param span The span index.
+     */
+    public String getSpanName(int span) {
+        return spans[span];
+    }
+
+    /**
+     * Gets the latencies of a span.
+     * @param span The span index.
+     */
+    public LatencyHistogram getHistogram(int span) {
+        return histograms.get(span);
+    }
+
+    /**
+     * Gets the latencies of the whole path.
+     */
+    public LatencyHistogram getTotalHistogram() {
+        return total;
+    }
+
+    /**
+     * Forgets every latency.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        total.reset();
+    }
+
+    /**
+     * Writes the latencies, one span per line.
+     * @param writer The writer. Flushed, not closed.
+     */
+    public void writeReport(PrintWriter writer) {
+        for (int i = 0; i < spans.length; i++) {
+            writer.println(spans[i] + ": " + histograms.get(i).summary());
+        }
+        writer.println("total: " + total.summary() + " over " + total.getCount() +
+                       " frames");
+        writer.flush();
+    }
+
+    // The span names.
+    private String[] spans;
+    // The latencies of each span.
+    private List<LatencyHistogram> histograms;
+    // The latencies of the whole path.
+    private LatencyHistogram total;
+}
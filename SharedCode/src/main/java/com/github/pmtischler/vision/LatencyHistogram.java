@@ -0,0 +1,110 @@
+package com.github.pmtischler.vision;
+
+import java.util.Arrays;
+
+/**
+ * Rolling histogram of latencies.
+ * Keeps the most recent samples so percentiles follow the current load
+ * rather than the whole run, and the all-time count and max.
+ */
+public class LatencyHistogram {
+    /**
+     * Creates an empty histogram.
+     * @param windowSize The number of recent samples kept.
+     */
+    public LatencyHistogram(int windowSize) {
+        window = new long[windowSize];
+        sorted = new long[windowSize];
+        reset();
+    }
+
+    /**
+     * Forgets every sample.
+     */
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        count = 0;
+        maxNanos = 0;
+    }
+
+    /**
+     * Records a sample.
+     * @param nanos The latency (nanoseconds).
+     */
+    public synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % window.length;
+        size = Math.min(size + 1, window.length);
+        count++;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    /**
+     * Gets the number of samples recorded since the last reset.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the largest sample recorded since the last reset.
+     * @return The latency (nanoseconds), 0 if none.
+     */
+    public synchronized long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Gets the mean of the recent samples.
+     * @return The latency (nanoseconds), 0 if none.
+     */
+    public synchronized double getMeanNanos() {
+        if (size == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += window[i];
+        }
+        return sum / (double)size;
+    }
+
+    /**
+     * Gets a percentile of the recent samples.
+     * @param percentile The percentile (0 to 1), e.g. 0.5 for the median.
+     * @return The latency (nanoseconds), 0 if none.
+     */
+    public synchronized long getPercentileNanos(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        System.arraycopy(window, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        int index = (int)Math.ceil(percentile * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    /**
+     * Summarizes the recent samples in milliseconds.
+     * @return The mean, median, 90th percentile and max.
+     */
+    public String summary() {
+        return String.format("mean %.1f p50 %.1f p90 %.1f max %.1f ms",
+                             getMeanNanos() / 1e6, getPercentileNanos(0.5) / 1e6,
+                             getPercentileNanos(0.9) / 1e6, getMaxNanos() / 1e6);
+    }
+
+    // The recent samples, as a ring buffer.
+    private long[] window;
+    // Buffer the recent samples are sorted in.
+    private long[] sorted;
+    // Index the next sample is written to.
+    private int next;
+    // The number of recent samples.
+    private int size;
+    // The number of samples since the last reset.
+    private long count;
+    // The largest sample since the last reset.
+    private long maxNanos;
+}
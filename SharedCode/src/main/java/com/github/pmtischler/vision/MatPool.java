@@ -0,0 +1,96 @@
+package com.github.pmtischler.vision;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import org.opencv.core.Mat;
+
+/**
+ * Pool of reusable images.
+ * Keeps released images by size and type so per-frame buffers are recycled
+ * instead of allocating native memory for every frame.
+ */
+public class MatPool {
+    /**
+     * Creates a pool.
+     * @param maxPerShape Most released images kept for each size and type.
+     */
+    public MatPool(int maxPerShape) {
+        this.maxPerShape = maxPerShape;
+        free = new HashMap<String, ArrayDeque<Mat>>();
+        numAllocated = 0;
+    }
+
+    /**
+     * Gets an image of a size and type, reusing a released one if available.
+     * The contents are undefined.
+     * @param rows The number of rows.
+     * @param cols The number of columns.
+     * @param type The OpenCV type (e.g. CvType.CV_8UC3).
+     * @return The image.
+     */
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        ArrayDeque<Mat> mats = free.get(key(rows, cols, type));
+        if (mats != null && !mats.isEmpty()) {
+            return mats.pop();
+        }
+        numAllocated++;
+        return new Mat(rows, cols, type);
+    }
+
+    /**
+     * Returns an image to the pool.
+     * The image must not be used after it is released.
+     * @param mat The image, released natively if the pool is full.
+     */
+    public synchronized void release(Mat mat) {
+        if (mat == null || mat.empty()) {
+            return;
+        }
+        String key = key(mat.rows(), mat.cols(), mat.type());
+        ArrayDeque<Mat> mats = free.get(key);
+        if (mats == null) {
+            mats = new ArrayDeque<Mat>();
+            free.put(key, mats);
+        }
+        if (mats.size() < maxPerShape) {
+            mats.push(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    /**
+     * Releases every pooled image.
+     */
+    public synchronized void clear() {
+        for (ArrayDeque<Mat> mats : free.values()) {
+            for (Mat mat : mats) {
+                mat.release();
+            }
+        }
+        free.clear();
+    }
+
+    /**
+     * Gets the number of images the pool has allocated.
+     * Stays constant once the pool is warmed up.
+     */
+    public synchronized int getNumAllocated() {
+        return numAllocated;
+    }
+
+    /**
+     * Gets the key of an image shape.
+     */
+    private static String key(int rows, int cols, int type) {
+        return rows + "x" + cols + ":" + type;
+    }
+
+    // Most released images kept for each shape.
+    private int maxPerShape;
+    // Released images by shape.
+    private Map<String, ArrayDeque<Mat>> free;
+    // Number of images allocated.
+    private int numAllocated;
+}
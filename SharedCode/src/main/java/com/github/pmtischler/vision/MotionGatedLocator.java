@@ -0,0 +1,188 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Skips detection when the scene has not changed.
+ * Each image is shrunk to a tiny grayscale thumbnail and compared against the
+ * thumbnail of the last detected image. If the mean absolute difference is
+ * below a threshold, the last detection is reused.
+ * The thumbnail is shrunk from the frame's shared grayscale view (the Y
+ * plane of NV21 frames), so the gate never needs a color conversion of its
+ * own.
+ */
+public class MotionGatedLocator implements BeaconLocator {
+    // Width of the thumbnail compared.
+    public static final int THUMB_WIDTH = 32;
+    // Height of the thumbnail compared.
+    public static final int THUMB_HEIGHT = 24;
+
+    /**
+     * Creates a motion gated locator.
+     * @param locator The locator run when the scene changes.
+     * @param threshold Mean absolute gray difference (0-255) considered a change.
+     * @param maxSkips Most consecutive images to skip before detecting anyway.
+     */
+    public MotionGatedLocator(BeaconLocator locator, double threshold,
+                              int maxSkips) {
+        this.locator = locator;
+        this.threshold = threshold;
+        this.maxSkips = maxSkips;
+        viewDownscale = 1;
+        gray = new Mat();
+        thumb = new byte[THUMB_WIDTH * THUMB_HEIGHT];
+        reference = null;
+        last = null;
+        reset();
+    }
+
+    /**
+     * Sets the downscale of the frame's grayscale view the thumbnail is
+     * shrunk from. Matching the detector's downscale shares the resize.
+     * @param viewDownscale The downscale factor (at least 1).
+     */
+    public void setViewDownscale(int viewDownscale) {
+        if (viewDownscale < 1) {
+            throw new IllegalArgumentException("Downscale must be at least 1.");
+        }
+        this.viewDownscale = viewDownscale;
+    }
+
+    /**
+     * Forgets the last detection and resets the metrics.
+     */
+    public void reset() {
+        reference = null;
+        last = null;
+        consecutiveSkips = 0;
+        numLocates = 0;
+        numSkips = 0;
+        detectNanos = 0;
+        lastSkipped = false;
+    }
+
+    @Override
+    public Detection locate(Frame frame) {
+        numLocates++;
+        Imgproc.resize(frame.getGray(viewDownscale), gray,
+                       new Size(THUMB_WIDTH, THUMB_HEIGHT), 0, 0, Imgproc.INTER_AREA);
+        gray.get(0, 0, thumb);
+
+        lastDifference = reference == null ? Double.MAX_VALUE :
+                         meanAbsDiff(thumb, reference);
+        if (last != null && lastDifference < threshold &&
+                consecutiveSkips < maxSkips) {
+            consecutiveSkips++;
+            numSkips++;
+            lastSkipped = true;
+            return last.reuse();
+        }
+
+        long start = System.nanoTime();
+        last = locator.locate(frame);
+        detectNanos += System.nanoTime() - start;
+        reference = thumb.clone();
+        consecutiveSkips = 0;
+        lastSkipped = false;
+        return last;
+    }
+
+    /**
+     * Locates the colors of interest in an image.
+     * @param img The image (CV_8UC3) to detect the beacon inside. Left unchanged.
+     * @return The detection.
+     */
+    public Detection locate(Mat img) {
+        Frame frame = new Frame(img);
+        try {
+            return locate(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Whether the last locate reused the previous detection.
+     */
+    public boolean wasLastSkipped() {
+        return lastSkipped;
+    }
+
+    /**
+     * Gets the difference measured by the last locate.
+     * @return Mean absolute gray difference (0-255), MAX_VALUE if no reference.
+     */
+    public double getLastDifference() {
+        return lastDifference;
+    }
+
+    /**
+     * Gets the fraction of locates which reused the previous detection.
+     * @return The fraction (0 to 1).
+     */
+    public double getSkipRate() {
+        if (numLocates == 0) {
+            return 0;
+        }
+        return numSkips / (double)numLocates;
+    }
+
+    /**
+     * Gets the detection time saved by skipping.
+     * Estimated as the skips times the average detection time.
+     * @return The time saved (seconds).
+     */
+    public double getSavedSeconds() {
+        int numDetects = numLocates - numSkips;
+        if (numDetects == 0) {
+            return 0;
+        }
+        return numSkips * (detectNanos / (double)numDetects) / 1e9;
+    }
+
+    /**
+     * Computes the mean absolute difference of two gray images.
+     * @param a The first image pixels.
+     * @param b The second image pixels, same size as the first.
+     * @return The mean absolute difference (0-255).
+     */
+    public static double meanAbsDiff(byte[] a, byte[] b) {
+        long sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+        }
+        return sum / (double)a.length;
+    }
+
+    // The locator run when the scene changes.
+    private BeaconLocator locator;
+    // Mean absolute gray difference considered a change.
+    private double threshold;
+    // Most consecutive images to skip.
+    private int maxSkips;
+
+    // Downscale of the frame's grayscale view.
+    private int viewDownscale;
+    // Reused buffers for the thumbnail.
+    private Mat gray;
+    private byte[] thumb;
+    // Thumbnail of the last detected image, null if none.
+    private byte[] reference;
+    // The last detection, null if none.
+    private Detection last;
+    // Difference measured by the last locate.
+    private double lastDifference;
+
+    // Number of images skipped since the last detection.
+    private int consecutiveSkips;
+    // Number of locates.
+    private int numLocates;
+    // Number of locates which reused the previous detection.
+    private int numSkips;
+    // Total time spent detecting (nanoseconds).
+    private long detectNanos;
+    // Whether the last locate reused the previous detection.
+    private boolean lastSkipped;
+}
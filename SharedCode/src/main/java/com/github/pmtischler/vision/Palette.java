@@ -0,0 +1,151 @@
+package com.github.pmtischler.vision;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Palette of the colors of interest, as they appear to the camera.
+ * Pure red and blue rarely match real photos, which forces extra clusters to
+ * cover the mismatch. A palette learned from sample images lets detection use
+ * fewer clusters and iterations.
+ * Procedure:
+ *   + Cluster the pixel colors of the sample images into K clusters.
+ *   + Use the cluster closest to each seed color (e.g. pure red) as its color,
+ *     with no cluster used by two seeds.
+ * Palettes are stored as text, one color per line with 3 channel values.
+ */
+public class Palette {
+    /**
+     * Creates a palette.
+     * @param colors Colors (Nx3, same channel order as images, 0-255).
+     */
+    public Palette(float[][] colors) {
+        this.colors = new float[colors.length][3];
+        for (int i = 0; i < colors.length; i++) {
+            if (colors[i].length != 3) {
+                throw new IllegalArgumentException("Colors must have 3 channels.");
+            }
+            System.arraycopy(colors[i], 0, this.colors[i], 0, 3);
+        }
+    }
+
+    /**
+     * Learns a palette from sample images.
+     * @param images Sample images (CV_8UC3) containing the colors of interest.
+     * @param seeds Approximate colors (Nx3) of interest, e.g. pure red and blue.
+     * @param downscale Factor to shrink images by before clustering.
+     * @param totalClusters The total clusters of colors to find.
+     * @param clusterIterations Number of iterations when performing kmeans clustering.
+     * @param clusterEpsilon Epsilon where clustering can be terminated.
+     * @param clusterAttempts Number of attempts (e.g. random initialization) to cluster.
+     * @return The learned palette, in the same order as the seeds. Each seed
+     *   gets its own cluster, even if two seeds are closest to the same one.
+     * @throws IllegalArgumentException If there are more seeds than clusters.
+     */
+    public static Palette learn(List<Mat> images, float[][] seeds, int downscale,
+                                int totalClusters, int clusterIterations,
+                                double clusterEpsilon, int clusterAttempts) {
+        float[][] centers = ColorLookupTable.clusterColors(
+                images, downscale, totalClusters, clusterIterations,
+                clusterEpsilon, clusterAttempts);
+        double[][] targets = new double[seeds.length][];
+        for (int i = 0; i < seeds.length; i++) {
+            targets[i] = new double[] {seeds[i][0], seeds[i][1], seeds[i][2]};
+        }
+        int[] assigned = ColorLookupTable.assignCenters(centers, targets);
+        float[][] learned = new float[seeds.length][];
+        for (int i = 0; i < seeds.length; i++) {
+            learned[i] = centers[assigned[i]];
+        }
+        return new Palette(learned);
+    }
+
+    /**
+     * Reads a palette.
+     * @param input The stream to read from. Not closed.
+     * @return The palette.
+     * @throws IOException If the stream is not a palette.
+     */
+    public static Palette read(InputStream input) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, "US-ASCII"));
+        ArrayList<float[]> colors = new ArrayList<float[]>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] values = line.split("\\s+");
+            if (values.length != 3) {
+                throw new IOException("Expected 3 channel values: " + line);
+            }
+            float[] color = new float[3];
+            for (int c = 0; c < 3; c++) {
+                try {
+                    color[c] = Float.parseFloat(values[c]);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid channel value: " + line);
+                }
+            }
+            colors.add(color);
+        }
+        if (colors.isEmpty()) {
+            throw new IOException("Palette has no colors.");
+        }
+        return new Palette(colors.toArray(new float[colors.size()][]));
+    }
+
+    /**
+     * Writes the palette.
+     * @param output The stream to write to. Flushed, not closed.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void write(OutputStream output) throws IOException {
+        Writer writer = new OutputStreamWriter(output, "US-ASCII");
+        writer.write("# Beacon palette, one color per line.\n");
+        for (float[] color : colors) {
+            writer.write(color[0] + " " + color[1] + " " + color[2] + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Gets the number of colors.
+     */
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Gets a color.
+     * @param i The color index.
+     * @return The color (3 channels, 0-255).
+     */
+    public float[] getColor(int i) {
+        return colors[i].clone();
+    }
+
+    /**
+     * Gets the colors in the form BeaconDetector expects.
+     * @return The colors (Nx3 CV_32F).
+     */
+    public Mat toMat() {
+        Mat mat = new Mat(colors.length, 3, CvType.CV_32F);
+        for (int i = 0; i < colors.length; i++) {
+            mat.put(i, 0, colors[i]);
+        }
+        return mat;
+    }
+
+    // The colors (Nx3).
+    private float[][] colors;
+}
@@ -0,0 +1,131 @@
+package com.github.pmtischler.vision;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of vision stages with per-stage timing.
+ * Each run times every stage in nanoseconds into a rolling histogram, so
+ * the slow stage can be seen on the phone rather than guessed.
+ * Built one stage at a time, with the types of adjacent stages checked:
+ *   Pipeline<Frame, Detection> p = Pipeline.of(resize).then(classify).then(localize);
+ * @param <I> The input type of the first stage.
+ * @param <O> The output type of the last stage.
+ */
+public class Pipeline<I, O> {
+    // Samples kept by each stage histogram.
+    public static final int WINDOW_SIZE = 100;
+
+    /**
+     * Creates a pipeline of a single stage.
+     * @param stage The first stage.
+     * @return The pipeline.
+     */
+    public static <I, O> Pipeline<I, O> of(Stage<I, O> stage) {
+        return new Pipeline<I, O>(new ArrayList<Stage<?, ?>>(), stage);
+    }
+
+    /**
+     * Creates a pipeline which runs another stage after this pipeline.
+     * The new pipeline has its own timings.
+     * @param stage The stage taking this pipeline's output.
+     * @return The pipeline.
+     */
+    public <P> Pipeline<I, P> then(Stage<O, P> stage) {
+        return new Pipeline<I, P>(stages, stage);
+    }
+
+    /**
+     * Creates a pipeline.
+     * @param stages The stages before the last.
+     * @param last The last stage.
+     */
+    private Pipeline(List<Stage<?, ?>> stages, Stage<?, ?> last) {
+        this.stages = new ArrayList<Stage<?, ?>>(stages);
+        this.stages.add(last);
+        histograms = new ArrayList<LatencyHistogram>();
+        for (int i = 0; i < this.stages.size(); i++) {
+            histograms.add(new LatencyHistogram(WINDOW_SIZE));
+        }
+        total = new LatencyHistogram(WINDOW_SIZE);
+    }
+
+    /**
+     * Runs every stage in order, timing each.
+     * @param input The input of the first stage.
+     * @return The output of the last stage.
+     */
+    @SuppressWarnings("unchecked")
+    public O run(I input) {
+        Object value = input;
+        long runStart = System.nanoTime();
+        for (int i = 0; i < stages.size(); i++) {
+            long start = System.nanoTime();
+            value = ((Stage<Object, Object>)stages.get(i)).process(value);
+            histograms.get(i).record(System.nanoTime() - start);
+        }
+        total.record(System.nanoTime() - runStart);
+        return (O)value;
+    }
+
+    /**
+     * Gets the number of stages.
+     */
+    public int getNumStages() {
+        return stages.size();
+    }
+
+    /**
+     * Gets the name of a stage.
+     * @param stage The stage index.
+     */
+    public String getStageName(int stage) {
+        return stages.get(stage).getName();
+    }
+
+    /**
+     * Gets the timings of a stage.
+     * @param stage The stage index.
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Gets the timings of whole runs.
+     */
+    public LatencyHistogram getTotalHistogram() {
+        return total;
+    }
+
+    /**
+     * Forgets every timing.
+     */
+    public void resetTimings() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        total.reset();
+    }
+
+    /**
+     * Writes the timings, one stage per line.
+     * @param writer The writer. Flushed, not closed.
+     */
+    public void writeReport(PrintWriter writer) {
+        for (int i = 0; i < stages.size(); i++) {
+            writer.println(getStageName(i) + ": " + histograms.get(i).summary());
+        }
+        writer.println("total: " + total.summary() + " over " + total.getCount() +
+                       " runs");
+        writer.flush();
+    }
+
+    // The stages, in order.
+    private List<Stage<?, ?>> stages;
+    // The timings of each stage.
+    private List<LatencyHistogram> histograms;
+    // The timings of whole runs.
+    private LatencyHistogram total;
+}
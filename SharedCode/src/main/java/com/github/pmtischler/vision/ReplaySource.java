@@ -0,0 +1,110 @@
+package com.github.pmtischler.vision;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.opencv.core.Mat;
+
+/**
+ * Frame source replaying recorded frames rather than a camera.
+ * Each capture reads the next frame when it is taken, either as fast as
+ * frames are taken (max rate) or no faster than a fixed rate, so detectors
+ * can be benchmarked at full throughput or tested at the camera rate.
+ * Frames come from a small pool and are stamped with when they were read.
+ */
+public abstract class ReplaySource implements FrameSource {
+    /**
+     * Creates a source.
+     * @param rate Most frames per second, 0 for as fast as taken.
+     */
+    protected ReplaySource(double rate) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate must not be negative.");
+        }
+        periodNanos = rate > 0 ? (long)(1e9 / rate) : 0;
+        pool = new MatPool(NUM_POOLED);
+        capturePending = new AtomicBoolean(false);
+        finished = false;
+        numFrames = 0;
+        nextNanos = 0;
+    }
+
+    @Override
+    public boolean startCapture() {
+        if (finished) {
+            return false;
+        }
+        return capturePending.compareAndSet(false, true);
+    }
+
+    @Override
+    public synchronized Frame takeFrame() {
+        if (finished || !capturePending.get()) {
+            return null;
+        }
+        long now = System.nanoTime();
+        if (numFrames > 0 && now < nextNanos) {
+            return null;
+        }
+        Mat image = read(pool);
+        if (image == null) {
+            finished = true;
+            capturePending.set(false);
+            return null;
+        }
+        // The period counts from the later of when this frame was due and
+        // when it was taken, so a late frame does not release the next early.
+        nextNanos = Math.max(nextNanos, now) + periodNanos;
+        numFrames++;
+        capturePending.set(false);
+        return new Frame(image, pool, now);
+    }
+
+    @Override
+    public synchronized void stop() {
+        finished = true;
+        close();
+        pool.clear();
+    }
+
+    /**
+     * Whether every frame has been read, or the source was stopped.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Gets the number of frames read.
+     */
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * Reads the next frame.
+     * @param pool Pool the image may be taken from. The image is returned
+     *   to it when the frame is released.
+     * @return The image (CV_8UC3 BGR), or null if there are no more frames.
+     */
+    protected abstract Mat read(MatPool pool);
+
+    /**
+     * Releases what frames are read from.
+     */
+    protected abstract void close();
+
+    // Most released images of each shape kept for reuse.
+    private static final int NUM_POOLED = 3;
+
+    // Least time between frames (nanoseconds), 0 for no limit.
+    private long periodNanos;
+    // Recycled images.
+    private MatPool pool;
+    // Whether a capture was started and not taken yet.
+    private AtomicBoolean capturePending;
+    // Whether there are no more frames.
+    private volatile boolean finished;
+    // Number of frames read.
+    private int numFrames;
+    // Earliest time the next frame may be read (System.nanoTime()).
+    private long nextNanos;
+}
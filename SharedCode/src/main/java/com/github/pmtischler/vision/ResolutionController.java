@@ -0,0 +1,135 @@
+package com.github.pmtischler.vision;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the detection downscale to meet a per-frame latency budget.
+ * The downscale is picked from a pyramid of levels using a moving percentile
+ * of measured detection times, so slow phones drop resolution and fast phones
+ * gain it.
+ * Procedure:
+ *   + Record detection times at the current level in a rolling window.
+ *   + If the percentile exceeds the target, move to a coarser level.
+ *   + If the percentile scaled by the pixel ratio of the next finer level is
+ *     still under the target (with headroom), move to the finer level.
+ */
+public class ResolutionController {
+    // Default downscale levels, from finest to coarsest.
+    public static final int[] DEFAULT_LEVELS = {3, 4, 6, 9, 12, 18};
+
+    /**
+     * Creates a controller.
+     * @param targetSeconds Target detection time per frame (seconds).
+     * @param levels Downscale levels, from finest to coarsest.
+     * @param initialDownscale Downscale to start at (nearest level is used).
+     */
+    public ResolutionController(double targetSeconds, int[] levels,
+                                int initialDownscale) {
+        if (levels.length == 0) {
+            throw new IllegalArgumentException("Need at least one level.");
+        }
+        this.targetNanos = (long)(targetSeconds * 1e9);
+        this.levels = levels.clone();
+        Arrays.sort(this.levels);
+
+        // Parameters selected for problem.
+        percentile = 0.9;
+        headroom = 0.8;
+        window = new long[8];
+
+        level = 0;
+        for (int i = 0; i < this.levels.length; i++) {
+            if (Math.abs(this.levels[i] - initialDownscale) <
+                    Math.abs(this.levels[level] - initialDownscale)) {
+                level = i;
+            }
+        }
+        numSamples = 0;
+    }
+
+    /**
+     * Sets how measurements are summarized.
+     * @param percentile Percentile of the window compared to the target (0 to 1).
+     * @param windowSize Number of measurements needed before changing level
+     *   (at least 1).
+     */
+    public void setPercentile(double percentile, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1.");
+        }
+        this.percentile = percentile;
+        window = new long[windowSize];
+        numSamples = 0;
+    }
+
+    /**
+     * Gets the downscale to use for the next detection.
+     */
+    public int getDownscale() {
+        return levels[level];
+    }
+
+    /**
+     * Records a detection time and updates the downscale.
+     * @param elapsedNanos Time taken by the detection at the current downscale.
+     * @return The downscale to use for the next detection.
+     */
+    public int update(long elapsedNanos) {
+        window[numSamples % window.length] = elapsedNanos;
+        numSamples++;
+        if (numSamples < window.length) {
+            return getDownscale();
+        }
+
+        long measured = getPercentileNanos();
+        if (measured > targetNanos && level + 1 < levels.length) {
+            setLevel(level + 1);
+        } else if (level > 0) {
+            // Cost grows with pixel count, the square of the downscale ratio.
+            double ratio = levels[level] / (double)levels[level - 1];
+            if (measured * ratio * ratio < targetNanos * headroom) {
+                setLevel(level - 1);
+            }
+        }
+        return getDownscale();
+    }
+
+    /**
+     * Gets the percentile of the recorded detection times.
+     * @return The time (nanoseconds), 0 if nothing was recorded.
+     */
+    public long getPercentileNanos() {
+        int n = Math.min(numSamples, window.length);
+        if (n == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(window, n);
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(percentile * n) - 1;
+        return sorted[Math.max(0, Math.min(n - 1, index))];
+    }
+
+    /**
+     * Moves to a level, discarding measurements of the old level.
+     */
+    private void setLevel(int level) {
+        this.level = level;
+        numSamples = 0;
+    }
+
+    // Target detection time (nanoseconds).
+    private long targetNanos;
+    // Downscale levels, from finest to coarsest.
+    private int[] levels;
+    // Percentile of the window compared to the target.
+    private double percentile;
+    // Fraction of the target a finer level must be predicted to stay under.
+    private double headroom;
+
+    // Index of the current level.
+    private int level;
+    // Rolling window of detection times at the current level.
+    private long[] window;
+    // Number of detection times recorded at the current level.
+    private int numSamples;
+}
@@ -0,0 +1,274 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Region of interest tracker for the beacon detector.
+ * Once the beacon is found, only a region around the last red/blue positions
+ * is searched, at a higher resolution than the full frame.
+ * Procedure:
+ *   + Search the full frame until every color is found confidently.
+ *   + Search the bounding box of the last positions, expanded by a margin.
+ *   + On low confidence grow the margin, then fall back to the full frame.
+ */
+public class RoiTracker implements BeaconLocator {
+    /**
+     * Creates a tracker which detects with kmeans clustering.
+     * @param detector The detector to use. Its downscale is the full frame downscale.
+     * @param totalClusters The total clusters of colors to find.
+     * @param colors Colors (Nx3 RGB) to search for.
+     */
+    public RoiTracker(BeaconDetector detector, int totalClusters, Mat colors) {
+        this(detector, totalClusters, colors, null);
+    }
+
+    /**
+     * Creates a tracker which detects with a color lookup table.
+     * @param detector The detector to use. Its downscale is the full frame downscale.
+     * @param table The lookup table trained for the colors of interest.
+     */
+    public RoiTracker(BeaconDetector detector, ColorLookupTable table) {
+        this(detector, 0, null, table);
+    }
+
+    /**
+     * Creates a tracker.
+     */
+    private RoiTracker(BeaconDetector detector, int totalClusters, Mat colors,
+                       ColorLookupTable table) {
+        this.detector = detector;
+        this.totalClusters = totalClusters;
+        this.colors = colors;
+        this.table = table;
+
+        // Parameters selected for problem.
+        minFraction = 0.01;
+        margin = 0.1;
+        maxGrowths = 2;
+        minDownscale = 2;
+
+        reset();
+    }
+
+    /**
+     * Sets the confidence needed to stay locked on.
+     * @param minFraction Fraction of searched pixels each color must have.
+     */
+    public void setMinFraction(double minFraction) {
+        this.minFraction = minFraction;
+    }
+
+    /**
+     * Sets how far the search region extends past the last positions.
+     * @param margin Margin on each side as a fraction of the image size.
+     * @param maxGrowths Times the margin doubles before searching the full frame.
+     */
+    public void setMargin(double margin, int maxGrowths) {
+        this.margin = margin;
+        this.maxGrowths = maxGrowths;
+    }
+
+    /**
+     * Sets the smallest downscale used when searching a region.
+     * @param minDownscale The downscale factor (at least 1).
+     */
+    public void setMinDownscale(int minDownscale) {
+        this.minDownscale = minDownscale;
+    }
+
+    /**
+     * Forgets the last positions, so the next search is of the full frame.
+     */
+    public void reset() {
+        lastPositions = null;
+        growths = 0;
+    }
+
+    /**
+     * Whether the tracker is locked on, searching only a region.
+     */
+    public boolean isLocked() {
+        return lastPositions != null;
+    }
+
+    /**
+     * Gets the region searched by the last call to track.
+     * @return The region in image pixels.
+     */
+    public Rect getLastRoi() {
+        return lastRoi;
+    }
+
+    /**
+     * Whether the last call to track searched the full frame, at the
+     * detector's downscale. Only such searches time that downscale, as
+     * region searches run at their own downscale.
+     */
+    public boolean wasLastFullFrame() {
+        return lastFullFrame;
+    }
+
+    @Override
+    public Detection locate(Frame frame) {
+        return track(frame);
+    }
+
+    /**
+     * Detects the beacon, searching around its last position if locked on.
+     * @param img The image to detect the beacon inside.
+     * @return The detection, with positions normalized to the full image.
+     */
+    public Detection track(Mat img) {
+        Frame frame = new Frame(img);
+        try {
+            return track(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Detects the beacon, searching around its last position if locked on.
+     * Full frame searches share the frame's views with other consumers.
+     * @param frame The frame to detect the beacon inside. Must have color.
+     * @return The detection, with positions normalized to the full image.
+     */
+    public Detection track(Frame frame) {
+        if (!frame.hasColor()) {
+            throw new IllegalArgumentException("Frame must have color.");
+        }
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        Rect roi;
+        if (isLocked()) {
+            roi = searchRegion(width, height);
+        } else {
+            roi = new Rect(0, 0, width, height);
+        }
+        lastRoi = roi;
+
+        // Search the region at a resolution with about the same pixel count
+        // as the full frame search, but never finer than the min downscale.
+        int fullDownscale = detector.getDownscale();
+        double areaRatio = (roi.width * (double)roi.height) /
+                           (width * (double)height);
+        int roiDownscale = Math.max(Math.min(minDownscale, fullDownscale),
+                                    (int)Math.ceil(fullDownscale * Math.sqrt(areaRatio)));
+        roiDownscale = Math.min(roiDownscale, Math.max(1, Math.min(roi.width, roi.height)));
+        Detection detection;
+        detector.setDownscale(roiDownscale);
+        try {
+            lastFullFrame = roi.width == width && roi.height == height;
+            if (lastFullFrame) {
+                detection = detectRegion(frame);
+            } else {
+                Frame region = new Frame(frame.getImage().submat(roi));
+                try {
+                    detection = detectRegion(region);
+                } finally {
+                    region.release();
+                }
+            }
+        } finally {
+            detector.setDownscale(fullDownscale);
+        }
+
+        // Convert positions from the region to the full image. Colors which
+        // were not found stay at zero, like in a full frame detection.
+        int numColors = detection.pixelCounts.length;
+        Mat positions = Mat.zeros(numColors, 2, CvType.CV_64F);
+        double[][] found = new double[numColors][2];
+        boolean confident = true;
+        for (int i = 0; i < numColors; i++) {
+            if (detection.pixelCounts[i] == 0) {
+                confident = false;
+                continue;
+            }
+            found[i][0] = (roi.x + detection.positions.get(i, 0)[0] * roi.width) / width;
+            found[i][1] = (roi.y + detection.positions.get(i, 1)[0] * roi.height) / height;
+            positions.put(i, 0, found[i]);
+            if (detection.getFraction(i) < minFraction) {
+                confident = false;
+            }
+        }
+
+        if (confident) {
+            lastPositions = found;
+            growths = 0;
+        } else if (isLocked() && growths < maxGrowths) {
+            // Widen the search around the last known positions.
+            growths++;
+        } else {
+            reset();
+        }
+
+        return new Detection(positions, detection.pixelCounts,
+                             detection.width, detection.height,
+                             detection.downscale, detection.confidence);
+    }
+
+    /**
+     * Computes the region around the last positions.
+     * @param width The image width.
+     * @param height The image height.
+     * @return The region in image pixels.
+     */
+    private Rect searchRegion(int width, int height) {
+        double minX = 1;
+        double maxX = 0;
+        double minY = 1;
+        double maxY = 0;
+        for (double[] p : lastPositions) {
+            minX = Math.min(minX, p[0]);
+            maxX = Math.max(maxX, p[0]);
+            minY = Math.min(minY, p[1]);
+            maxY = Math.max(maxY, p[1]);
+        }
+        double m = margin * (1 << growths);
+        int x0 = (int)Math.max(0, Math.floor((minX - m) * width));
+        int x1 = (int)Math.min(width, Math.ceil((maxX + m) * width));
+        int y0 = (int)Math.max(0, Math.floor((minY - m) * height));
+        int y1 = (int)Math.min(height, Math.ceil((maxY + m) * height));
+        return new Rect(x0, y0, Math.max(1, x1 - x0), Math.max(1, y1 - y0));
+    }
+
+    /**
+     * Runs the configured detection on an image.
+     */
+    private Detection detectRegion(Frame frame) {
+        if (table != null) {
+            return detector.locate(frame, table);
+        }
+        return detector.locate(frame, totalClusters, colors,
+                               colors.height() + 2, 1.0, 3);
+    }
+
+    // The detector.
+    private BeaconDetector detector;
+    // The total clusters of colors to find (kmeans only).
+    private int totalClusters;
+    // Colors to search for (kmeans only).
+    private Mat colors;
+    // The lookup table (null for kmeans).
+    private ColorLookupTable table;
+
+    // Fraction of searched pixels each color must have to stay locked.
+    private double minFraction;
+    // Margin on each side of the last positions (fraction of image).
+    private double margin;
+    // Times the margin may double before searching the full frame.
+    private int maxGrowths;
+    // Smallest downscale used when searching a region.
+    private int minDownscale;
+
+    // Last confident positions (normalized), null if not locked.
+    private double[][] lastPositions;
+    // Times the margin has doubled since the last confident detection.
+    private int growths;
+    // The region searched last.
+    private Rect lastRoi;
+    // Whether the region searched last was the full frame.
+    private boolean lastFullFrame;
+}
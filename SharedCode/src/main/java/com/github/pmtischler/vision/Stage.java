@@ -0,0 +1,35 @@
+package com.github.pmtischler.vision;
+
+/**
+ * A step of a vision pipeline.
+ * Stages keep their own buffers and reuse them across runs, so an output is
+ * only valid until the stage runs again.
+ * @param <I> The input type.
+ * @param <O> The output type.
+ */
+public abstract class Stage<I, O> {
+    /**
+     * Creates a stage.
+     * @param name The name reported with the stage timings.
+     */
+    public Stage(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets the name reported with the stage timings.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Processes an input.
+     * @param input The output of the previous stage.
+     * @return The output for the next stage.
+     */
+    public abstract O process(I input);
+
+    // The name reported with the stage timings.
+    private String name;
+}
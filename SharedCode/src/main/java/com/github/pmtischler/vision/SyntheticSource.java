@@ -0,0 +1,50 @@
+package com.github.pmtischler.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.opencv.core.Mat;
+
+/**
+ * Frame source cycling through images in memory, e.g. generated scenes.
+ * Each frame is a pooled copy, so consumers may modify it.
+ */
+public class SyntheticSource extends ReplaySource {
+    /**
+     * Creates a source.
+     * @param images The images (CV_8UC3 BGR), repeated in order. Not released.
+     * @param numFrames Number of frames to produce.
+     * @param rate Most frames per second, 0 for as fast as taken.
+     */
+    public SyntheticSource(List<Mat> images, int numFrames, double rate) {
+        super(rate);
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("No images.");
+        }
+        this.images = new ArrayList<Mat>(images);
+        this.numFrames = numFrames;
+        next = 0;
+    }
+
+    @Override
+    protected Mat read(MatPool pool) {
+        if (next >= numFrames) {
+            return null;
+        }
+        Mat src = images.get(next++ % images.size());
+        Mat image = pool.acquire(src.rows(), src.cols(), src.type());
+        src.copyTo(image);
+        return image;
+    }
+
+    @Override
+    protected void close() {
+        next = numFrames;
+    }
+
+    // The images repeated.
+    private List<Mat> images;
+    // Number of frames to produce.
+    private int numFrames;
+    // Index of the next frame.
+    private int next;
+}
@@ -0,0 +1,98 @@
+package com.github.pmtischler.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Classifies an image in horizontal tiles on a worker pool.
+ * Each tile is classified with the lookup table and histogrammed on its own,
+ * then the partial histograms are summed. Sums of counts do not depend on
+ * the order they are added, so the result is identical to classifying the
+ * whole image on one thread.
+ */
+public class TileClassifier {
+    /**
+     * Creates a tile classifier.
+     * @param workerPool The pool to run tiles on, or null to run on the caller.
+     * @param numTiles The number of tiles to split the image into.
+     */
+    public TileClassifier(ExecutorService workerPool, int numTiles) {
+        if (numTiles < 1) {
+            throw new IllegalArgumentException("Need at least one tile.");
+        }
+        this.workerPool = workerPool;
+        this.numTiles = numTiles;
+    }
+
+    /**
+     * Classifies an image and histograms the labels.
+     * @param table The lookup table.
+     * @param pixels The pixel data (CV_8UC3 layout).
+     * @param labels Output labels for every pixel.
+     * @param width The image width.
+     * @param height The image height.
+     * @return The histogram of the whole image.
+     */
+    public LabelHistogram classify(final ColorLookupTable table,
+                                   final byte[] pixels, final byte[] labels,
+                                   final int width, final int height) {
+        int tiles = Math.max(1, Math.min(numTiles, height));
+        if (workerPool == null || tiles == 1) {
+            return classifyRows(table, pixels, labels, width, height, 0, height);
+        }
+
+        // Split the rows evenly, spreading the remainder over the first tiles.
+        List<Future<LabelHistogram>> partials = new ArrayList<Future<LabelHistogram>>();
+        int firstRow = 0;
+        for (int t = 0; t < tiles; t++) {
+            final int start = firstRow;
+            final int rows = height / tiles + (t < height % tiles ? 1 : 0);
+            firstRow += rows;
+            partials.add(workerPool.submit(new Callable<LabelHistogram>() {
+                @Override
+                public LabelHistogram call() {
+                    return classifyRows(table, pixels, labels, width, height,
+                                        start, rows);
+                }
+            }));
+        }
+
+        // Reduce the partial results.
+        LabelHistogram histogram = new LabelHistogram(table.getNumColors(),
+                                                      width, height);
+        try {
+            for (Future<LabelHistogram> partial : partials) {
+                histogram.merge(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while classifying.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Tile classification failed.", e.getCause());
+        }
+        return histogram;
+    }
+
+    /**
+     * Classifies and histograms a range of rows.
+     */
+    private static LabelHistogram classifyRows(ColorLookupTable table,
+                                               byte[] pixels, byte[] labels,
+                                               int width, int height,
+                                               int firstRow, int numRows) {
+        LabelHistogram histogram = new LabelHistogram(table.getNumColors(),
+                                                      width, height);
+        table.classify(pixels, firstRow * width, numRows * width, labels);
+        histogram.add(labels, firstRow * width, firstRow, numRows);
+        return histogram;
+    }
+
+    // The pool to run tiles on, null to run on the caller.
+    private ExecutorService workerPool;
+    // The number of tiles to split the image into.
+    private int numTiles;
+}
@@ -0,0 +1,51 @@
+package com.github.pmtischler.vision;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * Frame source replaying a video file, e.g. a recorded match.
+ * Frames are decoded into pooled images, so steady state replay does not
+ * allocate.
+ */
+public class VideoFileSource extends ReplaySource {
+    /**
+     * Creates a source.
+     * @param path The video file.
+     * @param rate Most frames per second, 0 for as fast as taken.
+     */
+    public VideoFileSource(String path, double rate) {
+        super(rate);
+        capture = new VideoCapture(path);
+        if (!capture.isOpened()) {
+            throw new IllegalArgumentException("Unable to open " + path);
+        }
+        rows = 0;
+        cols = 0;
+    }
+
+    @Override
+    protected Mat read(MatPool pool) {
+        // Decode into a pooled image of the previous frame's shape.
+        Mat image = rows > 0 ? pool.acquire(rows, cols, CvType.CV_8UC3) : new Mat();
+        if (!capture.read(image) || image.empty()) {
+            pool.release(image);
+            return null;
+        }
+        rows = image.rows();
+        cols = image.cols();
+        return image;
+    }
+
+    @Override
+    protected void close() {
+        capture.release();
+    }
+
+    // The decoder.
+    private VideoCapture capture;
+    // Shape of the previous frame, 0 if none.
+    private int rows;
+    private int cols;
+}
@@ -0,0 +1,32 @@
+package com.github.pmtischler.base;
+
+import org.junit.Test;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the CameraManager's leasing rules.
+ */
+public class CameraManagerTest {
+    @Test
+    // Test an idle camera is only reused with the same configuration.
+    public void testReuse() throws Exception {
+        CaptureRequirements opened = new CaptureRequirements().require(640, 480, 15);
+        assertTrue(CameraManager.canReuse(true, 0, true, opened, true,
+                new CaptureRequirements().require(640, 480, 15)));
+        assertFalse(CameraManager.canReuse(true, 0, true, opened, false, opened));
+        assertFalse(CameraManager.canReuse(true, 0, true, opened, true,
+                new CaptureRequirements().require(1280, 720, 15)));
+        assertFalse(CameraManager.canReuse(true, 0, true, opened, true, null));
+        assertTrue(CameraManager.canReuse(true, 0, false, null, false, null));
+        assertFalse(CameraManager.canReuse(false, 0, true, opened, true, opened));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    // Test a second concurrent lease is rejected, even with the same
+    // configuration, as it would steal the first one's frames.
+    public void testConcurrentLease() throws Exception {
+        CaptureRequirements opened = new CaptureRequirements().require(640, 480, 15);
+        CameraManager.canReuse(true, 1, true, opened, true, opened);
+    }
+}
@@ -0,0 +1,83 @@
+package com.github.pmtischler.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests correctness of the CaptureRequirements.
+ */
+public class CaptureRequirementsTest {
+    // Supported preview sizes, as a typical phone reports them.
+    private static final List<int[]> sizes = Arrays.asList(
+            new int[] {1920, 1080}, new int[] {1280, 720}, new int[] {640, 480},
+            new int[] {352, 288}, new int[] {320, 240}, new int[] {176, 144});
+    // Supported frame rate ranges (frames per second * 1000).
+    private static final List<int[]> ranges = Arrays.asList(
+            new int[] {7500, 30000}, new int[] {15000, 15000},
+            new int[] {15000, 30000}, new int[] {30000, 30000});
+
+    @Test
+    // Test the smallest size satisfying every consumer is chosen.
+    public void testChooseSize() throws Exception {
+        CaptureRequirements requirements = new CaptureRequirements();
+        assertArrayEquals(new int[] {176, 144}, requirements.chooseSize(sizes));
+
+        requirements.require(300, 200, 0).require(200, 260, 0);
+        assertEquals(300, requirements.getMinWidth());
+        assertEquals(260, requirements.getMinHeight());
+        assertArrayEquals(new int[] {352, 288}, requirements.chooseSize(sizes));
+
+        // Unsatisfiable falls back to the largest.
+        requirements.require(4000, 3000, 0);
+        assertArrayEquals(new int[] {1920, 1080}, requirements.chooseSize(sizes));
+        assertNull(requirements.chooseSize(new ArrayList<int[]>()));
+    }
+
+    @Test
+    // Test requirements compare by value, to match a camera's configuration.
+    public void testEquals() throws Exception {
+        CaptureRequirements a = new CaptureRequirements().require(640, 480, 15);
+        CaptureRequirements b = new CaptureRequirements().require(320, 480, 0)
+            .require(640, 240, 15);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(new CaptureRequirements().require(640, 480, 30)));
+    }
+
+    @Test
+    // Test the slowest range guaranteed to be fast enough is chosen.
+    public void testChooseFpsRange() throws Exception {
+        CaptureRequirements requirements = new CaptureRequirements();
+        assertNull(requirements.chooseFpsRange(ranges));
+
+        requirements.require(0, 0, 10);
+        assertArrayEquals(new int[] {15000, 15000}, requirements.chooseFpsRange(ranges));
+
+        requirements.require(0, 0, 20);
+        assertArrayEquals(new int[] {30000, 30000}, requirements.chooseFpsRange(ranges));
+
+        // Unsatisfiable falls back to the fastest minimum.
+        requirements.require(0, 0, 60);
+        assertArrayEquals(new int[] {30000, 30000}, requirements.chooseFpsRange(ranges));
+    }
+
+    @Test
+    // Test a copy is unaffected by later changes to the original.
+    public void testCopy() throws Exception {
+        CaptureRequirements requirements = new CaptureRequirements().require(640, 480, 15);
+        CaptureRequirements copy = new CaptureRequirements(requirements);
+        assertEquals(requirements, copy);
+
+        requirements.require(1280, 720, 30);
+        assertFalse(requirements.equals(copy));
+        assertEquals(640, copy.getMinWidth());
+        assertEquals(480, copy.getMinHeight());
+        assertEquals(15, copy.getMinFps(), 0);
+    }
+}
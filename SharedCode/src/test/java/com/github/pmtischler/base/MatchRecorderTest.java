@@ -0,0 +1,103 @@
+package com.github.pmtischler.base;
+
+import java.io.File;
+import java.io.FileInputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the MatchRecorder.
+ */
+public class MatchRecorderTest {
+    // Directory the video is written to.
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    // Test frames rotate through the files and are indexed by time.
+    public void testRotateAndIndex() throws Exception {
+        File dir = folder.getRoot();
+        MatchRecorder recorder = new MatchRecorder(dir, "match", 10, 2, 2, 10);
+        recorder.syncClock(5);
+        long start = System.nanoTime();
+        Mat color = new Mat(48, 64, CvType.CV_8UC3, new Scalar(0, 0, 255));
+        Mat gray = new Mat(48, 64, CvType.CV_8UC1, new Scalar(128));
+        int queued = 0;
+        for (int i = 0; i < 5; i++) {
+            // Offer slowly enough to not be subsampled.
+            if (recorder.offer(i % 2 == 0 ? color : gray, start + i * 100000000L)) {
+                queued++;
+            }
+            Thread.sleep(50);
+        }
+        assertTrue(recorder.stop(5000));
+        assertEquals(5, queued);
+        assertEquals(5, recorder.getNumWritten());
+        assertEquals(0, recorder.getNumSkipped() + recorder.getNumDropped());
+        assertFalse(recorder.offer(color, start));
+
+        // Three files opened, rotating through two names.
+        assertTrue(new File(dir, "match0.avi").exists());
+        assertTrue(new File(dir, "match1.avi").exists());
+        assertFalse(new File(dir, "match2.avi").exists());
+
+        // Frame times are on the synced clock, in order.
+        TimeseriesStream.Reader index = new TimeseriesStream.Reader(
+                new FileInputStream(new File(dir, "matchIndex")));
+        int frames = 0;
+        double last = 0;
+        TimeseriesStream.DataPoint point;
+        while ((point = index.read()) != null) {
+            assertTrue(point.timestamp >= last);
+            last = point.timestamp;
+            if (point.varname.equals("videoFrame")) {
+                assertTrue(point.timestamp >= 5 && point.timestamp < 6);
+                frames++;
+            }
+        }
+        assertEquals(5, frames);
+    }
+
+    @Test
+    // Test the files are closed even if the encoder does not finish.
+    public void testStopTimeout() throws Exception {
+        File dir = folder.getRoot();
+        MatchRecorder recorder = new MatchRecorder(dir, "match", 10, 100, 1, 10);
+        long start = System.nanoTime();
+        Mat color = new Mat(480, 640, CvType.CV_8UC3, new Scalar(0, 0, 255));
+        for (int i = 0; i < 10; i++) {
+            recorder.offer(color, start + i * 100000000L);
+        }
+        assertFalse(recorder.stop(0));
+        // Every frame was either written or accounted for.
+        assertEquals(10, recorder.getNumWritten() + recorder.getNumSkipped() +
+                         recorder.getNumDropped());
+
+        // The index was flushed and closed with every written frame.
+        TimeseriesStream.Reader index = new TimeseriesStream.Reader(
+                new FileInputStream(new File(dir, "matchIndex")));
+        int frames = 0;
+        TimeseriesStream.DataPoint point;
+        while ((point = index.read()) != null) {
+            if (point.varname.equals("videoFrame")) {
+                frames++;
+            }
+        }
+        assertEquals(recorder.getNumWritten(), frames);
+    }
+}
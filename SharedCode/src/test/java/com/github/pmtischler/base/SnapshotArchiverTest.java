@@ -0,0 +1,57 @@
+package com.github.pmtischler.base;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the SnapshotArchiver.
+ */
+public class SnapshotArchiverTest {
+    // Directory the snapshots are written to.
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    // Test every Nth snapshot is written with rotating names.
+    public void testSampleAndRotate() throws Exception {
+        File dir = folder.getRoot();
+        SnapshotArchiver archiver = new SnapshotArchiver(dir, "picture", 2, 2, 10);
+        int queued = 0;
+        for (int i = 0; i < 10; i++) {
+            byte[] data = {(byte)i};
+            if (archiver.offer(data)) {
+                queued++;
+            }
+        }
+        assertTrue(archiver.stop(5000));
+        assertEquals(5, queued);
+        assertEquals(5, archiver.getNumWritten());
+        assertEquals(0, archiver.getNumDropped());
+
+        // Only two names, the last snapshots written are kept.
+        assertEquals(2, dir.list().length);
+        assertTrue(new File(dir, "picture0.jpg").exists());
+        assertTrue(new File(dir, "picture1.jpg").exists());
+        assertFalse(new File(dir, "picture2.jpg").exists());
+        assertEquals(1, new File(dir, "picture0.jpg").length());
+    }
+
+    @Test
+    // Test snapshots are dropped rather than blocking when the queue is full.
+    public void testDropWhenFull() throws Exception {
+        File dir = folder.getRoot();
+        SnapshotArchiver archiver = new SnapshotArchiver(dir, "picture", 1, 100, 1);
+        byte[] data = new byte[1 << 20];
+        for (int i = 0; i < 50; i++) {
+            archiver.offer(data);
+        }
+        assertTrue(archiver.stop(5000));
+        assertEquals(50, archiver.getNumWritten() + archiver.getNumDropped());
+        assertTrue(archiver.getNumDropped() > 0);
+    }
+}
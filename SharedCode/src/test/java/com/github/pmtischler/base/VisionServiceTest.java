@@ -0,0 +1,128 @@
+package com.github.pmtischler.base;
+
+import com.github.pmtischler.vision.BeaconLocator;
+import com.github.pmtischler.vision.Detection;
+import com.github.pmtischler.vision.Frame;
+import com.github.pmtischler.vision.FrameSource;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests correctness of the VisionService.
+ */
+public class VisionServiceTest {
+    /**
+     * Source handing over queued frames.
+     */
+    private static class QueueSource implements FrameSource {
+        // Frames not taken yet.
+        ConcurrentLinkedQueue<Frame> frames = new ConcurrentLinkedQueue<Frame>();
+
+        @Override
+        public boolean startCapture() {
+            return true;
+        }
+
+        @Override
+        public Frame takeFrame() {
+            return frames.poll();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    // Test every frame's detection is published, stamped with its capture.
+    public void testPublishesResults() throws Exception {
+        QueueSource source = new QueueSource();
+        final Mat positions = Mat.zeros(2, 2, CvType.CV_64F);
+        VisionService service = new VisionService(source, new BeaconLocator() {
+            @Override
+            public Detection locate(Frame frame) {
+                return new Detection(positions, new int[] {1, 1}, 4, 3, 1);
+            }
+        });
+        assertNull(service.getLatest());
+
+        service.start();
+        Frame frame = null;
+        for (int i = 0; i < 3; i++) {
+            frame = new Frame((Mat)null);
+            source.frames.add(frame);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getLatest() == null || service.getLatest().sequence != i) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(service.stop(5000));
+
+        VisionService.Result result = service.getLatest();
+        assertNotNull(result);
+        assertEquals(2, result.sequence);
+        assertEquals(frame.getCaptureNanos(), result.captureNanos);
+        assertEquals(4, result.detection.width);
+        // The locator's positions are not shared with the loop.
+        assertNotSame(positions, result.detection.positions);
+        assertTrue(result.latencyNanos >= result.processingNanos);
+        assertEquals(0, service.getNumErrors());
+    }
+
+    @Test
+    // Test a worker which failed to stop blocks a restart until it stops.
+    public void testStopTimeout() throws Exception {
+        QueueSource source = new QueueSource();
+        final AtomicBoolean release = new AtomicBoolean(false);
+        final CountDownLatch detecting = new CountDownLatch(1);
+        VisionService service = new VisionService(source, new BeaconLocator() {
+            @Override
+            public Detection locate(Frame frame) {
+                detecting.countDown();
+                // Ignores interrupts, like a long native call.
+                while (!release.get()) {
+                    Thread.yield();
+                }
+                return new Detection(Mat.zeros(2, 2, CvType.CV_64F),
+                                     new int[] {1, 1}, 4, 3, 1);
+            }
+        });
+        service.start();
+        source.frames.add(new Frame((Mat)null));
+        assertTrue(detecting.await(5, TimeUnit.SECONDS));
+
+        assertFalse(service.stop(50));
+        try {
+            service.start();
+            fail("Restarted while the worker was still detecting.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+
+        release.set(true);
+        assertTrue(service.stop(5000));
+        service.start();
+        assertTrue(service.stop(5000));
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.pmtischler.vision;
 
 import com.github.pmtischler.base.Vector2d;
+import java.util.ArrayList;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencv.core.Core;
@@ -54,8 +55,32 @@ public class BeaconDetectorTest {
     @Test
     // Test detect.
     public void testDetect() throws Exception {
+        detector.setDebugSink(new BeaconDetector.DebugSink() {
+            @Override
+            public void render(Mat rendered) {
+                Imgcodecs.imwrite("testdata/beacon_test_result.png", rendered);
+            }
+        });
+        Mat original = img.clone();
         Mat pos = detector.detect(img, 5, colors);
-        Imgcodecs.imwrite("testdata/beacon_test_result.png", img);
+        // Input is not overwritten.
+        assertEquals(0, Core.norm(original, img), diffThresh);
+
+        assertThat(pos.get(0, 0)[0], greaterThan(0.27));
+        assertThat(pos.get(0, 0)[0], lessThan(0.47));
+
+        assertThat(pos.get(1, 0)[0], greaterThan(0.5));
+        assertThat(pos.get(1, 0)[0], lessThan(0.7));
+    }
+
+    @Test
+    // Test detect with a lookup table.
+    public void testDetectLookupTable() throws Exception {
+        ArrayList<Mat> calibration = new ArrayList<Mat>();
+        calibration.add(img.clone());
+        ColorLookupTable table = ColorLookupTable.train(calibration, 9, 5, colors,
+                                                        4, 1.0, 3);
+        Mat pos = detector.detect(img, table);
 
         assertThat(pos.get(0, 0)[0], greaterThan(0.27));
         assertThat(pos.get(0, 0)[0], lessThan(0.47));
@@ -63,4 +88,39 @@ public class BeaconDetectorTest {
         assertThat(pos.get(1, 0)[0], greaterThan(0.5));
         assertThat(pos.get(1, 0)[0], lessThan(0.7));
     }
+
+    @Test
+    // Test the closest clusters are found with integer distances.
+    public void testFindClosestClusters() throws Exception {
+        int[][] centers = {{40, 40, 40}, {20, 30, 210}, {200, 60, 30}};
+        int[][] targets = {{0, 0, 255}, {255, 0, 0}};
+        int[] closest = BeaconDetector.findClosestClusters(centers, targets);
+        assertEquals(1, closest[0]);
+        assertEquals(2, closest[1]);
+    }
+
+    @Test
+    // Test cluster medians from byte labels.
+    public void testFindClusterMedians() throws Exception {
+        int width = 4;
+        int height = 2;
+        byte[] labels = {0, 1, 1, 2,
+                         0, 1, 1, 1};
+        int[] closestCluster = {1, 2};
+        Mat positions = Mat.zeros(2, 2, CvType.CV_64F);
+        int[] counts = BeaconDetector.findClusterMedians(labels, 3, closestCluster,
+                                                         width, height, positions);
+        assertEquals(5, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(2 / 4.0, positions.get(0, 0)[0], 0.00001);
+        assertEquals(1 / 2.0, positions.get(0, 1)[0], 0.00001);
+        assertEquals(3 / 4.0, positions.get(1, 0)[0], 0.00001);
+        assertEquals(0, positions.get(1, 1)[0], 0.00001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Test more clusters than byte labels hold are rejected.
+    public void testTooManyClusters() throws Exception {
+        new BeaconDetector(Byte.MAX_VALUE + 1, colors);
+    }
 }
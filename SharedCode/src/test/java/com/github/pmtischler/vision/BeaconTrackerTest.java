@@ -0,0 +1,97 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the BeaconTracker.
+ */
+public class BeaconTrackerTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.01;
+    // The tracker.
+    private BeaconTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        tracker = new BeaconTracker(2, 0.01, 0.0004);
+        tracker.setMaxUncertainty(0.05);
+    }
+
+    @Test
+    // Test a frame is needed until every color is measured.
+    public void testNeedsInitialMeasurement() throws Exception {
+        assertTrue(tracker.needsMeasurement());
+        tracker.update(0, 0.3, 0.5, 0);
+        assertFalse(tracker.isInitialized());
+        assertTrue(tracker.needsMeasurement());
+        tracker.update(1, 0.7, 0.5, 0);
+        assertTrue(tracker.isInitialized());
+        assertFalse(tracker.needsMeasurement());
+    }
+
+    @Test
+    // Test a moving color is tracked and predicted between frames.
+    public void testConstantVelocity() throws Exception {
+        for (int i = 0; i <= 20; i++) {
+            double t = i * 0.1;
+            tracker.update(0, 0.2 + 0.1 * t, 0.5, t);
+            tracker.update(1, 0.6 + 0.1 * t, 0.5, t);
+        }
+        assertEquals(0.1, tracker.getVelocity(0)[0], diffThresh);
+        assertEquals(0, tracker.getVelocity(0)[1], diffThresh);
+
+        tracker.predict(2.5);
+        assertEquals(0.45, tracker.getPosition(0)[0], diffThresh);
+        assertEquals(0.85, tracker.getPosition(1)[0], diffThresh);
+        assertEquals(0.5, tracker.getPosition(1)[1], diffThresh);
+    }
+
+    @Test
+    // Test uncertainty grows between frames until a frame is needed.
+    public void testUncertaintyGrows() throws Exception {
+        tracker.update(0, 0.3, 0.5, 0);
+        tracker.update(1, 0.7, 0.5, 0);
+        double previous = tracker.getUncertainty();
+        double t = 0;
+        while (!tracker.needsMeasurement()) {
+            t += 0.05;
+            tracker.predict(t);
+            assertTrue(tracker.getUncertainty() > previous);
+            previous = tracker.getUncertainty();
+            assertTrue(t < 10);
+        }
+        assertTrue(tracker.getCovariance(0)[0] > 0.05 * 0.05 ||
+                   tracker.getCovariance(1)[0] > 0.05 * 0.05);
+
+        // A new measurement shrinks it again.
+        tracker.update(0, 0.3, 0.5, t);
+        tracker.update(1, 0.7, 0.5, t);
+        assertFalse(tracker.needsMeasurement());
+    }
+
+    @Test
+    // Test predicting to a time leaves the filter for late detections.
+    public void testPredictWithoutUpdate() throws Exception {
+        for (int i = 0; i <= 20; i++) {
+            double t = i * 0.1;
+            tracker.update(0, 0.2 + 0.1 * t, 0.5, t);
+            tracker.update(1, 0.6 + 0.1 * t, 0.5, t);
+        }
+        assertEquals(0.45, tracker.predictPosition(0, 2.5)[0], diffThresh);
+        double uncertainty = tracker.getUncertainty(2.5);
+        assertEquals(2.0, tracker.getTime(), diffThresh);
+
+        // A detection captured before the query time is still fused.
+        tracker.update(0, 0.42, 0.5, 2.2);
+        tracker.update(1, 0.82, 0.5, 2.2);
+        assertEquals(2.2, tracker.getTime(), diffThresh);
+        assertTrue(tracker.getUncertainty(2.5) < uncertainty);
+
+        tracker.predict(2.5);
+        assertEquals(tracker.getUncertainty(), tracker.getUncertainty(2.5), 1e-9);
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the BlobLocalizer.
+ */
+public class BlobLocalizerTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+    // The image width.
+    private static final int width = 20;
+    // The image height.
+    private static final int height = 10;
+    // The localizer.
+    private BlobLocalizer localizer;
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        localizer = new BlobLocalizer();
+    }
+
+    /**
+     * Labels a rectangle of an image.
+     */
+    private static void fill(byte[] labels, int label, int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                labels[y * width + x] = (byte)label;
+            }
+        }
+    }
+
+    @Test
+    // Test stray pixels do not pull the position.
+    public void testIgnoresStrays() throws Exception {
+        byte[] labels = new byte[width * height];
+        fill(labels, -1, 0, 0, width, height);
+        // 4x4 blob centered at (3.5, 4.5) in pixel centers.
+        fill(labels, 0, 2, 3, 6, 7);
+        // Stray pixels far away.
+        fill(labels, 0, 19, 0, 20, 1);
+        fill(labels, 0, 18, 9, 19, 10);
+
+        double[] position = new double[2];
+        assertTrue(localizer.localize(labels, 0, width, height, position));
+        assertEquals(16, localizer.getLastArea());
+        assertEquals(3.5 / width, position[0], diffThresh);
+        assertEquals(4.5 / height, position[1], diffThresh);
+    }
+
+    @Test
+    // Test implausible blobs are rejected.
+    public void testRejectsImplausible() throws Exception {
+        byte[] labels = new byte[width * height];
+        fill(labels, -1, 0, 0, width, height);
+        // A long thin line.
+        fill(labels, 1, 0, 5, width, 6);
+
+        double[] position = {-1, -1};
+        assertFalse(localizer.localize(labels, 1, width, height, position));
+        assertEquals(0, localizer.getLastArea());
+        assertEquals(-1, position[0], diffThresh);
+    }
+}
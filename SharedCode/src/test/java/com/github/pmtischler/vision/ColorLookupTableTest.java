@@ -0,0 +1,95 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests correctness of ColorLookupTable and LabelHistogram.
+ */
+public class ColorLookupTableTest {
+    // The lookup table.
+    private ColorLookupTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        // Red, blue, and a gray background cluster (BGR order).
+        float[][] centers = {{20, 20, 200}, {200, 20, 20}, {128, 128, 128}};
+        int[] centerLabels = {0, 1, ColorLookupTable.BACKGROUND};
+        table = new ColorLookupTable(centers, centerLabels, 2);
+    }
+
+    @Test
+    // Test single color lookup.
+    public void testLookup() throws Exception {
+        assertEquals(0, table.lookup(0, 0, 255));
+        assertEquals(1, table.lookup(255, 0, 0));
+        assertEquals(ColorLookupTable.BACKGROUND, table.lookup(120, 130, 140));
+        assertEquals(ColorLookupTable.BACKGROUND, table.lookup(255, 255, 255));
+    }
+
+    @Test
+    // Test classification of a pixel buffer.
+    public void testClassify() throws Exception {
+        byte[] pixels = {0, 0, (byte)255,
+                         (byte)255, 0, 0,
+                         (byte)128, (byte)128, (byte)128};
+        byte[] labels = new byte[3];
+        table.classify(pixels, 0, 3, labels);
+        assertEquals(0, labels[0]);
+        assertEquals(1, labels[1]);
+        assertEquals(ColorLookupTable.BACKGROUND, labels[2]);
+
+        // Classify only the last pixel.
+        labels = new byte[3];
+        table.classify(pixels, 2, 1, labels);
+        assertEquals(0, labels[0]);
+        assertEquals(ColorLookupTable.BACKGROUND, labels[2]);
+    }
+
+    @Test
+    // Test the histogram median matches the sorted median.
+    public void testHistogramMedian() throws Exception {
+        // 4x2 image, color 0 in columns 0,1,3 and color 1 in column 2.
+        byte[] labels = {0, 0, 1, 0,
+                         -1, 0, 1, -1};
+        LabelHistogram histogram = new LabelHistogram(2, 4, 2);
+        histogram.add(labels, 0, 0, 2);
+        assertEquals(4, histogram.count(0));
+        // Sorted columns {0, 0+1, 1, 3} -> index 2 is 1.
+        assertEquals(1, histogram.medianX(0));
+        // Sorted rows {0, 0, 0, 1} -> index 2 is 0.
+        assertEquals(0, histogram.medianY(0));
+        assertEquals(2, histogram.medianX(1));
+        assertEquals(1, histogram.medianY(1));
+
+        // Merging row by row gives the same result.
+        LabelHistogram top = new LabelHistogram(2, 4, 2);
+        LabelHistogram bottom = new LabelHistogram(2, 4, 2);
+        top.add(labels, 0, 0, 1);
+        bottom.add(labels, 4, 1, 1);
+        top.merge(bottom);
+        assertEquals(histogram.count(0), top.count(0));
+        assertEquals(histogram.medianX(0), top.medianX(0));
+        assertEquals(histogram.medianY(1), top.medianY(1));
+    }
+
+    @Test
+    // Test near-identical colors are each assigned their own center.
+    public void testAssignCentersCollision() throws Exception {
+        float[][] centers = {{0, 0, 250}, {250, 0, 0}, {0, 0, 200}};
+        double[][] colors = {{0, 0, 255}, {0, 0, 254}};
+        int[] assigned = ColorLookupTable.assignCenters(centers, colors);
+        // The closer color takes the shared center, the other the next closest.
+        assertEquals(2, assigned[0]);
+        assertEquals(0, assigned[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Test more colors than centers are rejected.
+    public void testAssignCentersTooFew() throws Exception {
+        float[][] centers = {{0, 0, 250}};
+        double[][] colors = {{0, 0, 255}, {255, 0, 0}};
+        ColorLookupTable.assignCenters(centers, colors);
+    }
+}
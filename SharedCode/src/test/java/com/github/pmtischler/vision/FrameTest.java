@@ -0,0 +1,95 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests correctness of the Frame and MatPool.
+ */
+public class FrameTest {
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    // Test views are computed once and shared.
+    public void testViewsShared() throws Exception {
+        Mat img = new Mat(90, 120, CvType.CV_8UC3, new Scalar(10, 20, 30));
+        Frame frame = new Frame(img);
+        Mat small = frame.getDownscaled(3);
+        assertEquals(40, small.width());
+        assertEquals(30, small.height());
+        assertSame(small, frame.getDownscaled(3));
+        assertSame(img, frame.getDownscaled(1));
+
+        Mat floats = frame.getFloat(3);
+        assertEquals(CvType.CV_32FC3, floats.type());
+        assertSame(floats, frame.getFloat(3));
+        assertEquals(30, floats.get(0, 0)[2], 0.00001);
+        assertEquals(CvType.CV_8UC1, frame.getGray(3).type());
+        assertEquals(CvType.CV_8UC3, frame.getHsv(3).type());
+        frame.release();
+    }
+
+    @Test
+    // Test pooled frames stop allocating once warmed up.
+    public void testPoolReuse() throws Exception {
+        MatPool pool = new MatPool(2);
+        for (int i = 0; i < 5; i++) {
+            Mat img = pool.acquire(90, 120, CvType.CV_8UC3);
+            img.setTo(new Scalar(i, i, i));
+            Frame frame = new Frame(img, pool);
+            frame.getFloat(3);
+            frame.getHsv(3);
+            frame.release();
+        }
+        // Image, downscaled, float and HSV buffers.
+        assertEquals(4, pool.getNumAllocated());
+        pool.clear();
+    }
+
+    @Test
+    // Test NV21 frames view the Y and V/U planes without conversion.
+    public void testNv21Views() throws Exception {
+        MatPool pool = new MatPool(2);
+        Mat nv21 = pool.acquire(90 * 3 / 2, 120, CvType.CV_8UC1);
+        nv21.submat(0, 90, 0, 120).setTo(new Scalar(100));
+        nv21.submat(90, 135, 0, 120).setTo(new Scalar(128));
+        Frame frame = Frame.fromNv21(nv21, 90, pool, 0);
+
+        Mat luma = frame.getLuma();
+        assertEquals(CvType.CV_8UC1, luma.type());
+        assertEquals(120, luma.width());
+        assertEquals(90, luma.height());
+        assertEquals(100, luma.get(0, 0)[0], 0.00001);
+        assertSame(luma, frame.getGray(1));
+        assertEquals(40, frame.getGray(3).width());
+
+        Mat chroma = frame.getChroma();
+        assertEquals(CvType.CV_8UC2, chroma.type());
+        assertEquals(60, chroma.width());
+        assertEquals(45, chroma.height());
+
+        // Neutral chroma converts to gray.
+        Mat bgr = frame.getImage();
+        assertEquals(CvType.CV_8UC3, bgr.type());
+        assertEquals(100, bgr.get(0, 0)[0], 2);
+        frame.release();
+
+        // Luma only frames have no chroma.
+        Frame lumaOnly = Frame.fromNv21(pool.acquire(90, 120, CvType.CV_8UC1),
+                                        90, pool, 0);
+        assertNull(lumaOnly.getChroma());
+        lumaOnly.release();
+        pool.clear();
+    }
+}
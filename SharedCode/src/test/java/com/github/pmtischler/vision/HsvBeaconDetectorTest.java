@@ -0,0 +1,83 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests correctness of the HsvBeaconDetector.
+ */
+public class HsvBeaconDetectorTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+    // The image to detect on.
+    private Mat img;
+    // The colors to search for.
+    private Mat colors;
+    // The detector.
+    private HsvBeaconDetector detector;
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Load the test image.
+        img = Imgcodecs.imread("testdata/beacon_test.png");
+
+        // Set colors to search for.
+        int[] red = {0, 0, 255};
+        int[] blue = {255, 0, 0};
+        int[][] acolors = {red, blue};
+        colors = new Mat(acolors.length, 3, CvType.CV_32F);
+        for (int i = 0; i < acolors.length; i++) {
+            double[] c = new double[1];
+            for (int j = 0; j < acolors[i].length; j++) {
+                c[0] = acolors[i][j];
+                colors.put(i, j, c);
+            }
+        }
+
+        detector = new HsvBeaconDetector(colors);
+    }
+
+    @Test
+    // Test detect.
+    public void testDetect() throws Exception {
+        Mat original = img.clone();
+        Detection detection = detector.locate(img);
+        assertEquals(0, Core.norm(original, img), diffThresh);
+
+        Mat pos = detection.positions;
+        assertThat(pos.get(0, 0)[0], greaterThan(0.27));
+        assertThat(pos.get(0, 0)[0], lessThan(0.47));
+
+        assertThat(pos.get(1, 0)[0], greaterThan(0.5));
+        assertThat(pos.get(1, 0)[0], lessThan(0.7));
+    }
+
+    @Test
+    // Test no confidence without the colors.
+    public void testNoBeacon() throws Exception {
+        Mat gray = new Mat(img.size(), CvType.CV_8UC3, new Scalar(128, 128, 128));
+        assertEquals(0, detector.locate(gray).confidence, diffThresh);
+    }
+
+    @Test
+    // Test falling back when not confident.
+    public void testFallback() throws Exception {
+        Mat gray = new Mat(img.size(), CvType.CV_8UC3, new Scalar(128, 128, 128));
+        FallbackLocator locator = new FallbackLocator(
+                detector, new BeaconDetector(5, colors), 0.5);
+        locator.locate(gray);
+        assertEquals(1, locator.getFallbackRate(), diffThresh);
+    }
+}
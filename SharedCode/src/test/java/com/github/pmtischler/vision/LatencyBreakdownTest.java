@@ -0,0 +1,41 @@
+package com.github.pmtischler.vision;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the LatencyBreakdown.
+ */
+public class LatencyBreakdownTest {
+    @Test
+    // Test each span and the whole path are timed.
+    public void testSpans() throws Exception {
+        LatencyBreakdown breakdown = new LatencyBreakdown(10, "decode", "detect");
+        breakdown.record(1000, 1100, 1400);
+        breakdown.record(2000, 2300, 2400);
+        assertEquals(2, breakdown.getNumSpans());
+        assertEquals("detect", breakdown.getSpanName(1));
+        assertEquals(300, breakdown.getHistogram(0).getMaxNanos());
+        assertEquals(300, breakdown.getHistogram(1).getMaxNanos());
+        assertEquals(100, breakdown.getHistogram(1).getPercentileNanos(0.5));
+        assertEquals(400, breakdown.getTotalHistogram().getMaxNanos());
+        assertEquals(2, breakdown.getTotalHistogram().getCount());
+
+        StringWriter report = new StringWriter();
+        breakdown.writeReport(new PrintWriter(report));
+        assertTrue(report.toString().contains("decode: "));
+        assertTrue(report.toString().contains("over 2 frames"));
+
+        breakdown.reset();
+        assertEquals(0, breakdown.getTotalHistogram().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Test every timestamp is needed.
+    public void testMissingTimestamp() throws Exception {
+        new LatencyBreakdown(10, "decode", "detect").record(1000, 1100);
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests correctness of the LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+
+    @Test
+    // Test percentiles of the samples.
+    public void testPercentiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(10);
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        for (int i = 10; i >= 1; i--) {
+            histogram.record(i * 100);
+        }
+        assertEquals(500, histogram.getPercentileNanos(0.5));
+        assertEquals(900, histogram.getPercentileNanos(0.9));
+        assertEquals(1000, histogram.getPercentileNanos(1));
+        assertEquals(100, histogram.getPercentileNanos(0));
+        assertEquals(550, histogram.getMeanNanos(), diffThresh);
+    }
+
+    @Test
+    // Test old samples roll out of the window, but count toward the max.
+    public void testRolling() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(3);
+        histogram.record(1000);
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(30);
+        assertEquals(30, histogram.getPercentileNanos(1));
+        assertEquals(20, histogram.getMeanNanos(), diffThresh);
+        assertEquals(1000, histogram.getMaxNanos());
+        assertEquals(4, histogram.getCount());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the MotionGatedLocator.
+ */
+public class MotionGatedLocatorTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+    // The number of times the wrapped locator ran.
+    private int numDetects;
+    // The gated locator.
+    private MotionGatedLocator gate;
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        numDetects = 0;
+        BeaconLocator counter = new BeaconLocator() {
+            @Override
+            public Detection locate(Frame frame) {
+                numDetects++;
+                return new Detection(Mat.zeros(2, 2, CvType.CV_64F), new int[2],
+                                     frame.getWidth(), frame.getHeight(), 1);
+            }
+        };
+        gate = new MotionGatedLocator(counter, 4, 2);
+    }
+
+    @Test
+    // Test unchanged scenes are skipped, changed scenes are not.
+    public void testSkip() throws Exception {
+        Mat dark = new Mat(480, 640, CvType.CV_8UC3, new Scalar(50, 50, 50));
+        Mat bright = new Mat(480, 640, CvType.CV_8UC3, new Scalar(200, 200, 200));
+
+        Detection first = gate.locate(dark);
+        assertFalse(gate.wasLastSkipped());
+        assertFalse(first.reused);
+        Detection skipped = gate.locate(dark.clone());
+        assertTrue(gate.wasLastSkipped());
+        assertTrue(skipped.reused);
+        assertSame(first.positions, skipped.positions);
+        assertEquals(1, numDetects);
+
+        gate.locate(bright);
+        assertFalse(gate.wasLastSkipped());
+        assertEquals(2, numDetects);
+        assertEquals(1 / 3.0, gate.getSkipRate(), diffThresh);
+    }
+
+    @Test
+    // Test detection is forced after the max skips.
+    public void testMaxSkips() throws Exception {
+        Mat dark = new Mat(480, 640, CvType.CV_8UC3, new Scalar(50, 50, 50));
+        for (int i = 0; i < 4; i++) {
+            gate.locate(dark);
+        }
+        assertEquals(2, numDetects);
+    }
+
+    @Test
+    // Test luma only frames are gated without a color conversion.
+    public void testLumaOnly() throws Exception {
+        Mat dark = new Mat(480, 640, CvType.CV_8UC1, new Scalar(50));
+        Frame frame = Frame.fromNv21(dark, 480, null, System.nanoTime());
+        assertFalse(frame.hasColor());
+        gate.locate(frame);
+        gate.locate(frame);
+        assertTrue(gate.wasLastSkipped());
+        assertEquals(1, numDetects);
+        frame.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Test color detectors reject luma only frames up front.
+    public void testLumaOnlyColorDetector() throws Exception {
+        Mat dark = new Mat(480, 640, CvType.CV_8UC1, new Scalar(50));
+        Frame frame = Frame.fromNv21(dark, 480, null, System.nanoTime());
+        ColorLookupTable table = new ColorLookupTable(
+            new float[][] {{0, 0, 255}}, new int[] {0}, 1);
+        new BeaconDetector().locate(frame, table);
+    }
+
+    @Test
+    // Test the difference measure.
+    public void testMeanAbsDiff() throws Exception {
+        byte[] a = {0, 10, (byte)200, (byte)255};
+        byte[] b = {10, 0, (byte)180, (byte)255};
+        assertEquals(10, MotionGatedLocator.meanAbsDiff(a, b), diffThresh);
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.pmtischler.vision;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests correctness of the Palette.
+ */
+public class PaletteTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+
+    @Test
+    // Test a written palette reads back the same.
+    public void testWriteRead() throws Exception {
+        float[][] colors = {{12.5f, 30, 201}, {180, 40.25f, 20}};
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Palette(colors).write(output);
+
+        Palette palette = Palette.read(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(2, palette.size());
+        for (int i = 0; i < colors.length; i++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(colors[i][c], palette.getColor(i)[c], diffThresh);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    // Test malformed palettes are rejected.
+    public void testReadMalformed() throws Exception {
+        Palette.read(new ByteArrayInputStream("1 2\n".getBytes("US-ASCII")));
+    }
+
+    @Test(expected = IOException.class)
+    // Test empty palettes are rejected.
+    public void testReadEmpty() throws Exception {
+        Palette.read(new ByteArrayInputStream("# Nothing\n".getBytes("US-ASCII")));
+    }
+}
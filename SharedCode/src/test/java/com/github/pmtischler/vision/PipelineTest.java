@@ -0,0 +1,76 @@
+package com.github.pmtischler.vision;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the Pipeline.
+ */
+public class PipelineTest {
+    /**
+     * Parses a string to a number.
+     */
+    private static class ParseStage extends Stage<String, Integer> {
+        ParseStage() {
+            super("parse");
+        }
+
+        @Override
+        public Integer process(String input) {
+            return Integer.parseInt(input);
+        }
+    }
+
+    /**
+     * Doubles a number.
+     */
+    private static class DoubleStage extends Stage<Integer, Integer> {
+        DoubleStage() {
+            super("double");
+        }
+
+        @Override
+        public Integer process(Integer input) {
+            return 2 * input;
+        }
+    }
+
+    @Test
+    // Test stages run in order and every run is timed.
+    public void testRun() throws Exception {
+        Pipeline<String, Integer> pipeline =
+            Pipeline.of(new ParseStage()).then(new DoubleStage()).then(new DoubleStage());
+        assertEquals(3, pipeline.getNumStages());
+        assertEquals("parse", pipeline.getStageName(0));
+        assertEquals("double", pipeline.getStageName(2));
+
+        assertEquals(20, (int)pipeline.run("5"));
+        assertEquals(-4, (int)pipeline.run("-1"));
+        for (int i = 0; i < pipeline.getNumStages(); i++) {
+            assertEquals(2, pipeline.getHistogram(i).getCount());
+        }
+        assertEquals(2, pipeline.getTotalHistogram().getCount());
+
+        StringWriter report = new StringWriter();
+        pipeline.writeReport(new PrintWriter(report));
+        assertTrue(report.toString().contains("parse: mean"));
+        assertTrue(report.toString().contains("over 2 runs"));
+
+        pipeline.resetTimings();
+        assertEquals(0, pipeline.getTotalHistogram().getCount());
+    }
+
+    @Test
+    // Test extending a pipeline does not share its timings.
+    public void testThenHasOwnTimings() throws Exception {
+        Pipeline<String, Integer> parse = Pipeline.of(new ParseStage());
+        Pipeline<String, Integer> doubled = parse.then(new DoubleStage());
+        doubled.run("1");
+        assertEquals(1, parse.getNumStages());
+        assertEquals(0, parse.getHistogram(0).getCount());
+        assertEquals(1, doubled.getHistogram(0).getCount());
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.pmtischler.vision;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the ReplaySource, through the SyntheticSource.
+ */
+public class ReplaySourceTest {
+    // The images replayed.
+    private List<Mat> images;
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        images = new ArrayList<Mat>();
+        images.add(new Mat(30, 40, CvType.CV_8UC3, new Scalar(1, 1, 1)));
+        images.add(new Mat(30, 40, CvType.CV_8UC3, new Scalar(2, 2, 2)));
+    }
+
+    @Test
+    // Test frames are only handed over once captured, in order, until done.
+    public void testMaxRate() throws Exception {
+        SyntheticSource source = new SyntheticSource(images, 3, 0);
+        assertNull(source.takeFrame());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(source.startCapture());
+            Frame frame = source.takeFrame();
+            assertNotNull(frame);
+            assertEquals(i % 2 + 1, frame.getImage().get(0, 0)[0], 0.00001);
+            frame.release();
+        }
+        assertFalse(source.isFinished());
+        assertTrue(source.startCapture());
+        assertNull(source.takeFrame());
+        assertTrue(source.isFinished());
+        assertFalse(source.startCapture());
+        assertEquals(3, source.getNumFrames());
+        source.stop();
+    }
+
+    @Test
+    // Test a fixed rate holds frames back until their time.
+    public void testFixedRate() throws Exception {
+        SyntheticSource source = new SyntheticSource(images, 10, 20);
+        source.startCapture();
+        Frame first = source.takeFrame();
+        assertNotNull(first);
+        first.release();
+
+        // The next frame is 50ms later.
+        source.startCapture();
+        assertNull(source.takeFrame());
+        Thread.sleep(60);
+        Frame second = source.takeFrame();
+        assertNotNull(second);
+        assertTrue(second.getCaptureNanos() - first.getCaptureNanos() >= 50000000);
+        second.release();
+
+        // A late frame does not let the one after it through early.
+        Thread.sleep(200);
+        source.startCapture();
+        Frame late = source.takeFrame();
+        assertNotNull(late);
+        late.release();
+        source.startCapture();
+        assertNull(source.takeFrame());
+        source.stop();
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests correctness of ResolutionController.
+ */
+public class ResolutionControllerTest {
+    // Nanoseconds per millisecond.
+    private static final long ms = 1000000;
+
+    @Test
+    // Test starting at the nearest level.
+    public void testInitialLevel() throws Exception {
+        int[] levels = {3, 6, 9};
+        assertEquals(9, new ResolutionController(0.1, levels, 9).getDownscale());
+        assertEquals(6, new ResolutionController(0.1, levels, 7).getDownscale());
+        assertEquals(3, new ResolutionController(0.1, levels, 1).getDownscale());
+    }
+
+    @Test
+    // Test slow detections move to a coarser level.
+    public void testCoarser() throws Exception {
+        int[] levels = {3, 6, 9};
+        ResolutionController controller = new ResolutionController(0.1, levels, 3);
+        controller.setPercentile(0.5, 4);
+        // Not enough measurements yet.
+        for (int i = 0; i < 3; i++) {
+            assertEquals(3, controller.update(200 * ms));
+        }
+        assertEquals(6, controller.update(200 * ms));
+        // Measurements restart at the new level.
+        assertEquals(0, controller.getPercentileNanos());
+        for (int i = 0; i < 4; i++) {
+            controller.update(150 * ms);
+        }
+        assertEquals(9, controller.getDownscale());
+        // Stays at the coarsest level.
+        for (int i = 0; i < 4; i++) {
+            controller.update(150 * ms);
+        }
+        assertEquals(9, controller.getDownscale());
+    }
+
+    @Test
+    // Test fast detections move to a finer level only with headroom.
+    public void testFiner() throws Exception {
+        int[] levels = {3, 6};
+        ResolutionController controller = new ResolutionController(0.1, levels, 6);
+        controller.setPercentile(0.5, 4);
+        // 30ms at 6x predicts 120ms at 3x, over budget.
+        for (int i = 0; i < 4; i++) {
+            controller.update(30 * ms);
+        }
+        assertEquals(6, controller.getDownscale());
+        // 10ms at 6x predicts 40ms at 3x.
+        for (int i = 0; i < 4; i++) {
+            controller.update(10 * ms);
+        }
+        assertEquals(3, controller.getDownscale());
+    }
+
+    @Test
+    // Test the percentile ignores outliers.
+    public void testPercentile() throws Exception {
+        int[] levels = {3, 6};
+        ResolutionController controller = new ResolutionController(0.1, levels, 3);
+        controller.setPercentile(0.75, 4);
+        controller.update(10 * ms);
+        controller.update(500 * ms);
+        controller.update(20 * ms);
+        controller.update(30 * ms);
+        assertEquals(30 * ms, controller.getPercentileNanos());
+        assertEquals(3, controller.getDownscale());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    // Test an empty window is rejected.
+    public void testEmptyWindow() throws Exception {
+        new ResolutionController(0.2, ResolutionController.DEFAULT_LEVELS, 9)
+            .setPercentile(0.9, 0);
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.pmtischler.vision;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgcodecs.Imgcodecs;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests correctness of the RoiTracker.
+ */
+public class RoiTrackerTest {
+    // The comparison threshold.
+    private static final double diffThresh = 0.00001;
+    // The image to detect on.
+    private Mat img;
+    // The colors to search for.
+    private Mat colors;
+    // The tracker.
+    private RoiTracker tracker;
+
+    @Before
+    public void setUp() throws Exception {
+        // Load the OpenCV library.
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        // Load the test image.
+        img = Imgcodecs.imread("testdata/beacon_test.png");
+
+        // Set colors to search for.
+        int[] red = {0, 0, 255};
+        int[] blue = {255, 0, 0};
+        int[][] acolors = {red, blue};
+        colors = new Mat(acolors.length, 3, CvType.CV_32F);
+        for (int i = 0; i < acolors.length; i++) {
+            double[] c = new double[1];
+            for (int j = 0; j < acolors[i].length; j++) {
+                c[0] = acolors[i][j];
+                colors.put(i, j, c);
+            }
+        }
+
+        tracker = new RoiTracker(new BeaconDetector(), 5, colors);
+    }
+
+    @Test
+    // Test tracking searches a region once locked on.
+    public void testTrack() throws Exception {
+        assertFalse(tracker.isLocked());
+        tracker.track(img.clone());
+        assertTrue(tracker.isLocked());
+        assertTrue(tracker.wasLastFullFrame());
+
+        Mat pos = tracker.track(img.clone()).positions;
+        assertThat(tracker.getLastRoi().area(), lessThan(img.size().area()));
+        assertFalse(tracker.wasLastFullFrame());
+
+        assertThat(pos.get(0, 0)[0], greaterThan(0.27));
+        assertThat(pos.get(0, 0)[0], lessThan(0.47));
+
+        assertThat(pos.get(1, 0)[0], greaterThan(0.5));
+        assertThat(pos.get(1, 0)[0], lessThan(0.7));
+    }
+
+    @Test
+    // Test colors missing from a region search stay at zero.
+    public void testMissingColor() throws Exception {
+        float[][] centers = {{0, 0, 255}, {255, 0, 0}, {128, 128, 128}};
+        int[] centerLabels = {0, 1, ColorLookupTable.BACKGROUND};
+        RoiTracker tableTracker = new RoiTracker(
+                new BeaconDetector(), new ColorLookupTable(centers, centerLabels, 2));
+
+        Mat beacon = new Mat(480, 640, CvType.CV_8UC3, new Scalar(128, 128, 128));
+        beacon.submat(200, 280, 200, 300).setTo(new Scalar(0, 0, 255));
+        beacon.submat(200, 280, 340, 440).setTo(new Scalar(255, 0, 0));
+        tableTracker.track(beacon);
+        assertTrue(tableTracker.isLocked());
+
+        Mat blank = new Mat(480, 640, CvType.CV_8UC3, new Scalar(128, 128, 128));
+        Detection detection = tableTracker.track(blank);
+        assertThat(tableTracker.getLastRoi().area(), lessThan(blank.size().area()));
+        for (int i = 0; i < 2; i++) {
+            assertEquals(0, detection.pixelCounts[i]);
+            assertEquals(0, detection.positions.get(i, 0)[0], diffThresh);
+            assertEquals(0, detection.positions.get(i, 1)[0], diffThresh);
+        }
+        assertEquals(0, detection.confidence, diffThresh);
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.pmtischler.vision;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests correctness of the TileClassifier.
+ */
+public class TileClassifierTest {
+    // The image width.
+    private static final int width = 640;
+    // The image height.
+    private static final int height = 480;
+    // The lookup table.
+    private ColorLookupTable table;
+    // The pixel data.
+    private byte[] pixels;
+
+    @Before
+    public void setUp() throws Exception {
+        float[][] centers = {{20, 20, 200}, {200, 20, 20}, {128, 128, 128}};
+        int[] centerLabels = {0, 1, ColorLookupTable.BACKGROUND};
+        table = new ColorLookupTable(centers, centerLabels, 2);
+
+        pixels = new byte[width * height * 3];
+        new Random(0).nextBytes(pixels);
+    }
+
+    @Test
+    // Test tiled results are identical to sequential results.
+    public void testIdentical() throws Exception {
+        byte[] expectedLabels = new byte[width * height];
+        LabelHistogram expected = new TileClassifier(null, 1).classify(
+                table, pixels, expectedLabels, width, height);
+
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                // Uneven tile counts exercise the remainder rows.
+                for (int tiles = 1; tiles <= 2 * threads + 1; tiles++) {
+                    byte[] labels = new byte[width * height];
+                    LabelHistogram actual = new TileClassifier(pool, tiles).classify(
+                            table, pixels, labels, width, height);
+                    assertArrayEquals(expectedLabels, labels);
+                    for (int i = 0; i < table.getNumColors(); i++) {
+                        assertEquals(expected.count(i), actual.count(i));
+                        assertEquals(expected.medianX(i), actual.medianX(i));
+                        assertEquals(expected.medianY(i), actual.medianY(i));
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
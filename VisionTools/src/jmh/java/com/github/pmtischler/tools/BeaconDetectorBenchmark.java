@@ -0,0 +1,204 @@
+package com.github.pmtischler.tools;
+
+import com.github.pmtischler.vision.BeaconDetector;
+import com.github.pmtischler.vision.ColorLookupTable;
+import com.github.pmtischler.vision.Detection;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Benchmarks of the BeaconDetector stages and the whole detection.
+ * Each stage helper, as called by the detector's pipeline, runs on inputs
+ * prepared by the stages before it, across input resolutions (downscale)
+ * and cluster counts. Set the input image with
+ * -Dbenchmark.image, otherwise testdata/beacon_test.png is used if present
+ * and a synthetic red/blue image if not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeaconDetectorBenchmark {
+    // Factor the image is shrunk by.
+    @Param({"3", "6", "9", "12"})
+    public int downscale;
+    // The total clusters of colors to find.
+    @Param({"3", "5", "8"})
+    public int clusters;
+
+    /**
+     * Prepares the inputs of every stage.
+     */
+    @Setup
+    public void setUp() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        origImg = loadImage();
+        int[][] redBlue = {{0, 0, 255}, {255, 0, 0}};
+        colors = new Mat(redBlue.length, 3, CvType.CV_32F);
+        for (int i = 0; i < redBlue.length; i++) {
+            for (int d = 0; d < 3; d++) {
+                double[] c = {redBlue[i][d]};
+                colors.put(i, d, c);
+            }
+        }
+        iterations = colors.height() + 2;
+        size = new Size(origImg.width()/downscale, origImg.height()/downscale);
+
+        resized = new Mat();
+        Imgproc.resize(origImg, resized, size);
+        features = BeaconDetector.buildFeatures(resized);
+        labels = new Mat();
+        centers = new Mat();
+        Core.kmeans(features, clusters, labels, criteria(), 3,
+                    Core.KMEANS_RANDOM_CENTERS, centers);
+        closestCluster = BeaconDetector.findClosestClusters(centers, colors);
+        clusterLabels = BeaconDetector.toClusterLabels(labels,
+                                                       resized.width() * resized.height());
+        colorPositions = Mat.zeros(colors.height(), 2, CvType.CV_64F);
+        pixelCounts = BeaconDetector.findClusterMedians(clusterLabels, clusters,
+                                                        closestCluster, resized.width(),
+                                                        resized.height(), colorPositions);
+        renderColors = BeaconDetector.toRenderColors(centers, closestCluster);
+
+        detector = new BeaconDetector();
+        detector.setDownscale(downscale);
+        ArrayList<Mat> calibration = new ArrayList<Mat>();
+        calibration.add(origImg);
+        table = ColorLookupTable.train(calibration, downscale, clusters, colors,
+                                       iterations, 1.0, 3);
+    }
+
+    @Benchmark
+    public Mat resize() {
+        Mat img = new Mat();
+        Imgproc.resize(origImg, img, size);
+        return img;
+    }
+
+    @Benchmark
+    public Mat convertTo() {
+        // The float image pass buildFeatures no longer needs, for comparison.
+        Mat img = new Mat();
+        resized.convertTo(img, CvType.CV_32FC3);
+        return img;
+    }
+
+    @Benchmark
+    public Mat buildFeatures() {
+        return BeaconDetector.buildFeatures(resized);
+    }
+
+    @Benchmark
+    public Mat kmeans() {
+        Mat outLabels = new Mat();
+        Mat outCenters = new Mat();
+        Core.kmeans(features, clusters, outLabels, criteria(), 3,
+                    Core.KMEANS_RANDOM_CENTERS, outCenters);
+        return outCenters;
+    }
+
+    @Benchmark
+    public int[] findClosestClusters() {
+        return BeaconDetector.findClosestClusters(centers, colors);
+    }
+
+    @Benchmark
+    public byte[] toClusterLabels() {
+        return BeaconDetector.toClusterLabels(labels, resized.width() * resized.height());
+    }
+
+    @Benchmark
+    public int[] findClusterMedians() {
+        Mat positions = Mat.zeros(colors.height(), 2, CvType.CV_64F);
+        return BeaconDetector.findClusterMedians(clusterLabels, clusters,
+                                                 closestCluster, resized.width(),
+                                                 resized.height(), positions);
+    }
+
+    @Benchmark
+    public byte[] renderClusters() {
+        return BeaconDetector.renderClusters(clusterLabels, closestCluster, renderColors,
+                                             colorPositions, pixelCounts,
+                                             resized.width(), resized.height());
+    }
+
+    @Benchmark
+    public Detection endToEndKmeans() {
+        return detector.locate(origImg, clusters, colors, iterations, 1.0, 3);
+    }
+
+    @Benchmark
+    public Detection endToEndLookupTable() {
+        return detector.locate(origImg, table);
+    }
+
+    /**
+     * Gets the kmeans termination criteria used by the detector.
+     */
+    private TermCriteria criteria() {
+        return new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER,
+                                iterations, 1.0);
+    }
+
+    /**
+     * Loads the benchmark image, or creates a synthetic beacon.
+     */
+    private static Mat loadImage() {
+        String path = System.getProperty("benchmark.image",
+                                         "../SharedCode/testdata/beacon_test.png");
+        if (new File(path).exists()) {
+            return Imgcodecs.imread(path);
+        }
+        // Gray background with red left and blue right halves of a beacon.
+        Mat img = new Mat(720, 1280, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        img.submat(200, 520, 320, 640).setTo(new Scalar(30, 30, 220));
+        img.submat(200, 520, 640, 960).setTo(new Scalar(220, 40, 30));
+        return img;
+    }
+
+    // The full resolution image.
+    private Mat origImg;
+    // Colors (Nx3) to search for.
+    private Mat colors;
+    // Number of iterations when performing kmeans clustering.
+    private int iterations;
+    // The downscaled size.
+    private Size size;
+    // Stage outputs used as inputs to the next stage.
+    private Mat resized;
+    private Mat features;
+    private Mat labels;
+    private Mat centers;
+    private int[] closestCluster;
+    private byte[] clusterLabels;
+    private Mat colorPositions;
+    private int[] pixelCounts;
+    private byte[][] renderColors;
+    // The detector for end to end runs.
+    private BeaconDetector detector;
+    // The lookup table for end to end runs.
+    private ColorLookupTable table;
+}
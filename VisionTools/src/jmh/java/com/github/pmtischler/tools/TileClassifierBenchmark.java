@@ -0,0 +1,83 @@
+package com.github.pmtischler.tools;
+
+import com.github.pmtischler.vision.ColorLookupTable;
+import com.github.pmtischler.vision.LabelHistogram;
+import com.github.pmtischler.vision.TileClassifier;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks scaling of the TileClassifier across worker threads.
+ * Classifies a 640x480 random image with one tile per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileClassifierBenchmark {
+    // The number of worker threads (and tiles).
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    /**
+     * Prepares the table, image and worker pool.
+     */
+    @Setup
+    public void setUp() {
+        float[][] centers = {{20, 20, 200}, {200, 20, 20}, {128, 128, 128}};
+        int[] centerLabels = {0, 1, ColorLookupTable.BACKGROUND};
+        table = new ColorLookupTable(centers, centerLabels, 2);
+
+        pixels = new byte[WIDTH * HEIGHT * 3];
+        new Random(0).nextBytes(pixels);
+        labels = new byte[WIDTH * HEIGHT];
+
+        pool = Executors.newFixedThreadPool(threads);
+        classifier = new TileClassifier(pool, threads);
+    }
+
+    /**
+     * Stops the worker pool.
+     */
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public LabelHistogram classify() {
+        return classifier.classify(table, pixels, labels, WIDTH, HEIGHT);
+    }
+
+    // The image width.
+    private static final int WIDTH = 640;
+    // The image height.
+    private static final int HEIGHT = 480;
+
+    // The lookup table.
+    private ColorLookupTable table;
+    // The pixel data.
+    private byte[] pixels;
+    // Reused label buffer.
+    private byte[] labels;
+    // The worker threads.
+    private ExecutorService pool;
+    // The classifier under test.
+    private TileClassifier classifier;
+}
@@ -0,0 +1,378 @@
+package com.github.pmtischler.tools;
+
+import com.github.pmtischler.vision.BeaconDetector;
+import com.github.pmtischler.vision.Detection;
+import com.github.pmtischler.vision.Palette;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Offline beacon detector evaluation.
+ * Runs the BeaconDetector over a directory of labeled images in parallel and
+ * reports accuracy, per-image latency percentiles and allocations, so the
+ * detector parameters can be tuned for speed without losing accuracy.
+ * Labels are read from labels.txt in the image directory, one image per line:
+ *   image.png redX redY blueX blueY
+ * with positions normalized to [0,1]. Lines starting with # are ignored.
+ * Usage:
+ *   BeaconEvaluation imageDir [--clusters=5] [--iterations=4] [--epsilon=1.0]
+ *     [--attempts=3] [--downscale=9] [--threads=N] [--repeat=5]
+ *     [--tolerance=0.1] [--csv=results.csv] [--palette=palette.txt]
+ * The palette defaults to pure red and blue, see PaletteLearner.
+ */
+public class BeaconEvaluation {
+    /**
+     * Expected positions of an image.
+     */
+    public static class Label {
+        // Image file name, relative to the image directory.
+        public final String file;
+        // Expected red position (normalized x, y).
+        public final double[] red;
+        // Expected blue position (normalized x, y).
+        public final double[] blue;
+
+        /**
+         * Creates a Label.
+         * @param file Image file name, relative to the image directory.
+         * @param red Expected red position (normalized x, y).
+         * @param blue Expected blue position (normalized x, y).
+         */
+        public Label(String file, double[] red, double[] blue) {
+            this.file = file;
+            this.red = red;
+            this.blue = blue;
+        }
+    }
+
+    /**
+     * Evaluation of a single image.
+     */
+    public static class Result {
+        // The image label.
+        public final Label label;
+        // Detection time of each repeat (nanoseconds).
+        public final long[] latencies;
+        // Java heap bytes allocated per detection, -1 if unsupported.
+        public final long allocatedBytes;
+        // Distance from the expected red position (normalized).
+        public final double redError;
+        // Distance from the expected blue position (normalized).
+        public final double blueError;
+
+        /**
+         * Creates a Result.
+         */
+        public Result(Label label, long[] latencies, long allocatedBytes,
+                      double redError, double blueError) {
+            this.label = label;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+            this.redError = redError;
+            this.blueError = blueError;
+        }
+
+        /**
+         * Whether both colors are within the tolerance.
+         */
+        public boolean isCorrect(double tolerance) {
+            return redError <= tolerance && blueError <= tolerance;
+        }
+    }
+
+    /**
+     * Creates an evaluation.
+     * @param options Detector and run options (see class usage).
+     * @throws IOException If the palette cannot be read.
+     */
+    public BeaconEvaluation(Map<String, String> options) throws IOException {
+        clusters = Integer.parseInt(get(options, "clusters", "5"));
+        iterations = Integer.parseInt(get(options, "iterations", "4"));
+        epsilon = Double.parseDouble(get(options, "epsilon", "1.0"));
+        attempts = Integer.parseInt(get(options, "attempts", "3"));
+        downscale = Integer.parseInt(get(options, "downscale", "9"));
+        threads = Integer.parseInt(get(options, "threads",
+                "" + Runtime.getRuntime().availableProcessors()));
+        repeat = Integer.parseInt(get(options, "repeat", "5"));
+        tolerance = Double.parseDouble(get(options, "tolerance", "0.1"));
+
+        if (options.containsKey("palette")) {
+            FileInputStream input = new FileInputStream(options.get("palette"));
+            try {
+                colors = Palette.read(input).toMat();
+            } finally {
+                input.close();
+            }
+        } else {
+            // Naive red and blue (BGR).
+            float[][] redBlue = {{0, 0, 255}, {255, 0, 0}};
+            colors = new Palette(redBlue).toMat();
+        }
+    }
+
+    /**
+     * Reads the labels of an image directory.
+     * @param dir The image directory, containing labels.txt.
+     * @return The labels.
+     */
+    public static List<Label> readLabels(File dir) throws Exception {
+        ArrayList<Label> labels = new ArrayList<Label>();
+        BufferedReader reader = new BufferedReader(
+                new FileReader(new File(dir, "labels.txt")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 5) {
+                    throw new IllegalArgumentException("Bad label line: " + line);
+                }
+                double[] red = {Double.parseDouble(fields[1]),
+                                Double.parseDouble(fields[2])};
+                double[] blue = {Double.parseDouble(fields[3]),
+                                 Double.parseDouble(fields[4])};
+                labels.add(new Label(fields[0], red, blue));
+            }
+        } finally {
+            reader.close();
+        }
+        return labels;
+    }
+
+    /**
+     * Evaluates the detector on every labeled image.
+     * @param dir The image directory.
+     * @param labels The image labels.
+     * @return The result of each image, in label order.
+     */
+    public List<Result> run(final File dir, List<Label> labels) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (final Label label : labels) {
+                futures.add(pool.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return evaluate(dir, label);
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<Result>();
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Evaluates the detector on one image.
+     * @param dir The image directory.
+     * @param label The image label.
+     * @return The result.
+     */
+    public Result evaluate(File dir, Label label) throws Exception {
+        Mat img = Imgcodecs.imread(new File(dir, label.file).getPath());
+        if (img.empty()) {
+            throw new IllegalArgumentException("Unable to read " + label.file);
+        }
+        BeaconDetector detector = new BeaconDetector();
+        detector.setDownscale(downscale);
+
+        // Warm up once, which also gives the positions to score.
+        Detection detection = detector.locate(img, clusters, colors, iterations,
+                                              epsilon, attempts);
+        long[] latencies = new long[repeat];
+        long allocatedStart = allocatedBytes();
+        for (int r = 0; r < repeat; r++) {
+            long start = System.nanoTime();
+            detector.locate(img, clusters, colors, iterations, epsilon, attempts);
+            latencies[r] = System.nanoTime() - start;
+        }
+        long allocated = -1;
+        if (allocatedStart >= 0 && repeat > 0) {
+            allocated = (allocatedBytes() - allocatedStart) / repeat;
+        }
+
+        double redError = distance(detection.positions, 0, label.red);
+        double blueError = distance(detection.positions, 1, label.blue);
+        return new Result(label, latencies, allocated, redError, blueError);
+    }
+
+    /**
+     * Writes a summary report.
+     * @param results The results to summarize.
+     * @param out Where to write the report.
+     */
+    public void report(List<Result> results, PrintWriter out) {
+        int correct = 0;
+        double redError = 0;
+        double blueError = 0;
+        long allocated = 0;
+        List<Long> latencies = new ArrayList<Long>();
+        for (Result r : results) {
+            if (r.isCorrect(tolerance)) {
+                correct++;
+            }
+            redError += r.redError;
+            blueError += r.blueError;
+            allocated += Math.max(0, r.allocatedBytes);
+            for (long l : r.latencies) {
+                latencies.add(l);
+            }
+        }
+        int n = Math.max(1, results.size());
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        out.println(String.format(
+                "clusters=%d iterations=%d epsilon=%.3f attempts=%d downscale=%d threads=%d",
+                clusters, iterations, epsilon, attempts, downscale, threads));
+        out.println(String.format("images=%d correct=%d accuracy=%.3f (tolerance %.3f)",
+                results.size(), correct, correct / (double)n, tolerance));
+        out.println(String.format("mean error red=%.4f blue=%.4f",
+                redError / n, blueError / n));
+        out.println(String.format("latency ms p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+                percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.9) / 1e6,
+                percentile(sorted, 0.99) / 1e6, percentile(sorted, 1.0) / 1e6));
+        out.println(String.format("java heap allocated per detection=%d bytes",
+                allocated / n));
+        out.flush();
+    }
+
+    /**
+     * Writes per-image results as CSV.
+     * @param results The results to write.
+     * @param out Where to write the CSV.
+     */
+    public void writeCsv(List<Result> results, PrintWriter out) {
+        out.println("file,correct,red_error,blue_error,p50_ms,max_ms,allocated_bytes");
+        for (Result r : results) {
+            long[] sorted = r.latencies.clone();
+            Arrays.sort(sorted);
+            out.println(String.format("%s,%b,%.4f,%.4f,%.3f,%.3f,%d",
+                    r.label.file, r.isCorrect(tolerance), r.redError, r.blueError,
+                    percentile(sorted, 0.5) / 1e6, percentile(sorted, 1.0) / 1e6,
+                    r.allocatedBytes));
+        }
+        out.flush();
+    }
+
+    /**
+     * Runs the evaluation from the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BeaconEvaluation imageDir [--option=value ...]");
+            System.exit(1);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        File dir = new File(args[0]);
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--") || !args[i].contains("=")) {
+                throw new IllegalArgumentException("Bad option: " + args[i]);
+            }
+            int split = args[i].indexOf('=');
+            options.put(args[i].substring(2, split), args[i].substring(split + 1));
+        }
+
+        BeaconEvaluation evaluation = new BeaconEvaluation(options);
+        List<Result> results = evaluation.run(dir, readLabels(dir));
+        evaluation.report(results, new PrintWriter(System.out));
+        if (options.containsKey("csv")) {
+            PrintWriter csv = new PrintWriter(options.get("csv"));
+            try {
+                evaluation.writeCsv(results, csv);
+            } finally {
+                csv.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the Java heap bytes allocated by the current thread.
+     * @return The bytes, or -1 if the JVM does not support it.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Computes the distance of a detected position from the expected one.
+     */
+    private static double distance(Mat positions, int color, double[] expected) {
+        double dx = positions.get(color, 0)[0] - expected[0];
+        double dy = positions.get(color, 1)[0] - expected[1];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Gets a percentile (nearest rank) of sorted values.
+     */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int)Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Gets an option, or its default.
+     */
+    private static String get(Map<String, String> options, String key, String def) {
+        return options.containsKey(key) ? options.get(key) : def;
+    }
+
+    // The total clusters of colors to find.
+    private int clusters;
+    // Number of iterations when performing kmeans clustering.
+    private int iterations;
+    // Epsilon where clustering can be terminated.
+    private double epsilon;
+    // Number of attempts to cluster.
+    private int attempts;
+    // Factor images are shrunk by before detection.
+    private int downscale;
+    // Number of images evaluated in parallel.
+    private int threads;
+    // Number of timed detections per image.
+    private int repeat;
+    // Distance (normalized) a position may be from the label to be correct.
+    private double tolerance;
+    // Colors (Nx3) to search for.
+    private Mat colors;
+}
@@ -0,0 +1,130 @@
+package com.github.pmtischler.tools;
+
+import com.github.pmtischler.vision.BeaconDetector;
+import com.github.pmtischler.vision.Detection;
+import com.github.pmtischler.vision.Frame;
+import com.github.pmtischler.vision.ImageDirectorySource;
+import com.github.pmtischler.vision.Palette;
+import com.github.pmtischler.vision.ReplaySource;
+import com.github.pmtischler.vision.VideoFileSource;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Replays recorded frames through the BeaconDetector on the desktop.
+ * Frames come from an image directory or a video file (e.g. a recorded
+ * match) through the same FrameSource interface as the robot's camera, so
+ * the detector runs as it does on the phone. Reports throughput and stage
+ * timings, and optionally the detection of every frame for regression tests.
+ * Usage:
+ *   BeaconReplay (imageDir | video) [--rate=0] [--clusters=5]
+ *     [--iterations=4] [--epsilon=1.0] [--attempts=3] [--downscale=9]
+ *     [--palette=palette.txt] [--csv=detections.csv]
+ * A rate of 0 replays as fast as the detector runs.
+ */
+public class BeaconReplay {
+    /**
+     * Replays from the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BeaconReplay (imageDir | video) [--option=value ...]");
+            System.exit(1);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 1; i < args.length; i++) {
+            if (!args[i].startsWith("--") || !args[i].contains("=")) {
+                throw new IllegalArgumentException("Bad option: " + args[i]);
+            }
+            int split = args[i].indexOf('=');
+            options.put(args[i].substring(2, split), args[i].substring(split + 1));
+        }
+        int clusters = Integer.parseInt(get(options, "clusters", "5"));
+        int iterations = Integer.parseInt(get(options, "iterations", "4"));
+        double epsilon = Double.parseDouble(get(options, "epsilon", "1.0"));
+        int attempts = Integer.parseInt(get(options, "attempts", "3"));
+        double rate = Double.parseDouble(get(options, "rate", "0"));
+
+        Mat colors;
+        if (options.containsKey("palette")) {
+            FileInputStream input = new FileInputStream(options.get("palette"));
+            try {
+                colors = Palette.read(input).toMat();
+            } finally {
+                input.close();
+            }
+        } else {
+            // Naive red and blue (BGR).
+            float[][] redBlue = {{0, 0, 255}, {255, 0, 0}};
+            colors = new Palette(redBlue).toMat();
+        }
+
+        File input = new File(args[0]);
+        ReplaySource source = input.isDirectory() ?
+            new ImageDirectorySource(input, rate) :
+            new VideoFileSource(input.getPath(), rate);
+        BeaconDetector detector = new BeaconDetector();
+        detector.setDownscale(Integer.parseInt(get(options, "downscale", "9")));
+
+        PrintWriter csv = null;
+        if (options.containsKey("csv")) {
+            csv = new PrintWriter(options.get("csv"));
+            csv.println("frame,red_x,red_y,blue_x,blue_y,confidence,latency_ms");
+        }
+        long start = System.nanoTime();
+        try {
+            while (!source.isFinished()) {
+                source.startCapture();
+                Frame frame = source.takeFrame();
+                if (frame == null) {
+                    // Paced by the rate, or finished.
+                    Thread.sleep(1);
+                    continue;
+                }
+                try {
+                    long detectStart = System.nanoTime();
+                    Detection detection = detector.locate(frame, clusters, colors,
+                                                          iterations, epsilon,
+                                                          attempts);
+                    long latency = System.nanoTime() - detectStart;
+                    if (csv != null) {
+                        csv.println(String.format("%d,%.4f,%.4f,%.4f,%.4f,%.3f,%.3f",
+                                source.getNumFrames() - 1,
+                                detection.positions.get(0, 0)[0],
+                                detection.positions.get(0, 1)[0],
+                                detection.positions.get(1, 0)[0],
+                                detection.positions.get(1, 1)[0],
+                                detection.confidence, latency / 1e6));
+                    }
+                } finally {
+                    frame.release();
+                }
+            }
+        } finally {
+            source.stop();
+            if (csv != null) {
+                csv.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        PrintWriter out = new PrintWriter(System.out);
+        out.println(String.format("frames=%d seconds=%.2f fps=%.1f",
+                source.getNumFrames(), seconds, source.getNumFrames() / seconds));
+        detector.getClusterPipeline().writeReport(out);
+    }
+
+    /**
+     * Gets an option, or its default.
+     */
+    private static String get(Map<String, String> options, String key, String def) {
+        return options.containsKey(key) ? options.get(key) : def;
+    }
+}
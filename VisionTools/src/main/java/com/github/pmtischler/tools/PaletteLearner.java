@@ -0,0 +1,76 @@
+package com.github.pmtischler.tools;
+
+import com.github.pmtischler.vision.Palette;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Learns a beacon palette from sample images on the desktop.
+ * Same procedure as the PaletteCalibration OpMode, for images already taken.
+ * Copy the output to the robot controller app files as beaconPalette, or pass
+ * it to BeaconEvaluation with --palette.
+ * Usage:
+ *   PaletteLearner palette.txt image.png [image.png ...] [--clusters=5]
+ *     [--iterations=4] [--attempts=3] [--downscale=9]
+ */
+public class PaletteLearner {
+    /**
+     * Learns the palette from the command line.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PaletteLearner palette.txt image.png [...] " +
+                               "[--option=value ...]");
+            System.exit(1);
+        }
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        ArrayList<Mat> images = new ArrayList<Mat>();
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (!args[i].contains("=")) {
+                    throw new IllegalArgumentException("Bad option: " + args[i]);
+                }
+                int split = args[i].indexOf('=');
+                options.put(args[i].substring(2, split), args[i].substring(split + 1));
+                continue;
+            }
+            Mat img = Imgcodecs.imread(args[i]);
+            if (img.empty()) {
+                throw new IllegalArgumentException("Cannot read image: " + args[i]);
+            }
+            images.add(img);
+        }
+
+        // Naive red and blue (BGR) seed the colors learned.
+        float[][] redBlue = {{0, 0, 255}, {255, 0, 0}};
+        Palette palette = Palette.learn(
+                images, redBlue,
+                Integer.parseInt(get(options, "downscale", "9")),
+                Integer.parseInt(get(options, "clusters", "5")),
+                Integer.parseInt(get(options, "iterations", "4")), 1.0,
+                Integer.parseInt(get(options, "attempts", "3")));
+
+        FileOutputStream output = new FileOutputStream(args[0]);
+        try {
+            palette.write(output);
+        } finally {
+            output.close();
+        }
+        palette.write(System.out);
+    }
+
+    /**
+     * Gets an option, or its default.
+     */
+    private static String get(Map<String, String> options, String key,
+                              String defaultValue) {
+        return options.containsKey(key) ? options.get(key) : defaultValue;
+    }
+}